@@ -0,0 +1,44 @@
+package org.andork.segment;
+
+/**
+ * A fixed-length, zero-copy view of a region of a {@link CharSequence}, so
+ * that a {@link Segment} of a sequence that's still growing (like a
+ * {@link StringBuilder} that's being appended to) keeps the same length.
+ */
+final class CharSequenceView implements CharSequence {
+	private final CharSequence sequence;
+	private final int offset;
+	private final int length;
+
+	CharSequenceView(CharSequence sequence, int offset, int length) {
+		this.sequence = sequence;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+		}
+		return sequence.charAt(offset + index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end) {
+			throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+		}
+		return new CharSequenceView(sequence, offset + start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		return sequence.subSequence(offset, offset + length).toString();
+	}
+}
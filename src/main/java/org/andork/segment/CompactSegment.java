@@ -0,0 +1,73 @@
+package org.andork.segment;
+
+/**
+ * The location of a {@link Segment} without a reference to its text, for
+ * long-lived data structures like ASTs that would otherwise keep the entire
+ * text of every source in memory. The text is kept in a
+ * {@link SourceRegistry} instead, which may garbage collect it and reload it
+ * on demand.
+ *
+ * @see SourceRegistry#compact(Segment)
+ */
+public final class CompactSegment {
+	private final SourceRegistry registry;
+	public final Object source;
+	/**
+	 * The index of this segment in the entire text of its {@link #source}.
+	 */
+	public final int sourceIndex;
+	public final int length;
+	public final int startLine;
+	public final int startCol;
+	public final int endLine;
+	/**
+	 * @see Segment#endCol
+	 */
+	public final int endCol;
+
+	CompactSegment(SourceRegistry registry, Object source, int sourceIndex, int length, int startLine,
+			int startCol, int endLine, int endCol) {
+		this.registry = registry;
+		this.source = source;
+		this.sourceIndex = sourceIndex;
+		this.length = length;
+		this.startLine = startLine;
+		this.startCol = startCol;
+		this.endLine = endLine;
+		this.endCol = endCol;
+	}
+
+	/**
+	 * @return the {@link Segment} this represents, which is a substring of the
+	 *         source text from the {@link SourceRegistry} (reloaded if
+	 *         necessary).
+	 * @throws java.io.UncheckedIOException
+	 *             if the source text fails to reload.
+	 * @throws IllegalStateException
+	 *             if the reloaded source text is too short (because it has
+	 *             changed).
+	 */
+	public Segment toSegment() {
+		Segment root = registry.get(source);
+		if (sourceIndex + length > root.length()) {
+			throw new IllegalStateException("source has changed: " + source);
+		}
+		if (sourceIndex == 0 && length == root.length()) {
+			return root;
+		}
+		return new Segment(root, sourceIndex, root.text().subSequence(sourceIndex, sourceIndex + length),
+				source, startLine, startCol, endLine, endCol);
+	}
+
+	@Override
+	public String toString() {
+		return toSegment().toString();
+	}
+
+	/**
+	 * @see Segment#underlineInContext()
+	 */
+	public String underlineInContext() {
+		return toSegment().underlineInContext();
+	}
+}
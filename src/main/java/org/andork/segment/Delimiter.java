@@ -0,0 +1,318 @@
+package org.andork.segment;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A delimiter for {@link Segment#split(String, int)}. Most delimiters in
+ * practice are literal strings, sets of characters, or runs of whitespace,
+ * which can be found much faster without the regex engine, so
+ * {@link #compile(String)} recognizes those, and the rest are compiled once
+ * by {@link #pattern(String)}.
+ */
+abstract class Delimiter {
+	private static final int CACHE_SIZE = 256;
+	private static final ConcurrentHashMap<String, Delimiter> cache = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, Pattern> patterns = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the index of the next delimiter in {@code s} at or after
+	 *         {@code from}, or -1 if there is none.
+	 */
+	abstract int find(CharSequence s, int from);
+
+	/**
+	 * @param start
+	 *            the index of a delimiter returned by {@link #find}.
+	 * @return the index after the end of the delimiter.
+	 */
+	abstract int end(CharSequence s, int start);
+
+	/**
+	 * @return a {@code Delimiter} for the given regex (cached), or
+	 *         {@code null} if it needs the regex engine; see
+	 *         {@link #pattern(String)}.
+	 */
+	static Delimiter compile(String regex) {
+		Delimiter result = cache.get(regex);
+		if (result == null && !patterns.containsKey(regex)) {
+			result = parse(regex);
+			if (result != null) {
+				put(cache, regex, result);
+			} else {
+				put(patterns, regex, Pattern.compile(regex));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the compiled form of a regex that {@link #compile(String)}
+	 *         returned {@code null} for (cached).
+	 */
+	static Pattern pattern(String regex) {
+		Pattern result = patterns.get(regex);
+		if (result == null) {
+			result = Pattern.compile(regex);
+			put(patterns, regex, result);
+		}
+		return result;
+	}
+
+	private static <V> void put(ConcurrentHashMap<String, V> cache, String regex, V value) {
+		if (cache.size() >= CACHE_SIZE) {
+			cache.clear();
+		}
+		cache.put(regex, value);
+	}
+
+	static final class Literal extends Delimiter {
+		final String literal;
+
+		Literal(String literal) {
+			this.literal = literal;
+		}
+
+		@Override
+		int find(CharSequence s, int from) {
+			if (s instanceof String) {
+				String str = (String) s;
+				return literal.length() == 1 ? str.indexOf(literal.charAt(0), from) : str.indexOf(literal, from);
+			}
+			char first = literal.charAt(0);
+			int last = s.length() - literal.length();
+			outer: for (int i = from; i <= last; i++) {
+				if (s.charAt(i) != first) {
+					continue;
+				}
+				for (int k = 1; k < literal.length(); k++) {
+					if (s.charAt(i + k) != literal.charAt(k)) {
+						continue outer;
+					}
+				}
+				return i;
+			}
+			return -1;
+		}
+
+		@Override
+		int end(CharSequence s, int start) {
+			return start + literal.length();
+		}
+	}
+
+	/**
+	 * Any one of a set of characters, or a run of them.
+	 */
+	static final class CharSet extends Delimiter {
+		/**
+		 * The ASCII characters in the set.
+		 */
+		final boolean[] ascii = new boolean[128];
+		/**
+		 * The other characters in the set.
+		 */
+		final StringBuilder others = new StringBuilder();
+		final boolean run;
+
+		CharSet(boolean run) {
+			this.run = run;
+		}
+
+		void add(char c) {
+			if (c < 128) {
+				ascii[c] = true;
+			} else if (!contains(c)) {
+				others.append(c);
+			}
+		}
+
+		boolean contains(char c) {
+			if (c < 128) {
+				return ascii[c];
+			}
+			for (int i = 0; i < others.length(); i++) {
+				if (others.charAt(i) == c) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		int find(CharSequence s, int from) {
+			int length = s.length();
+			if (others.length() == 0) {
+				for (int i = from; i < length; i++) {
+					char c = s.charAt(i);
+					if (c < 128 && ascii[c]) {
+						return i;
+					}
+				}
+				return -1;
+			}
+			for (int i = from; i < length; i++) {
+				if (contains(s.charAt(i))) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		int end(CharSequence s, int start) {
+			int end = start + 1;
+			if (run) {
+				while (end < s.length() && contains(s.charAt(end))) {
+					end++;
+				}
+			}
+			return end;
+		}
+	}
+
+	private static final String WHITESPACE = " \t\n\u000B\f\r";
+
+	/**
+	 * Parses a regex that's really a literal or a character set.
+	 *
+	 * @return the {@code Delimiter}, or {@code null} if it's neither.
+	 */
+	static Delimiter parse(String regex) {
+		if (regex.startsWith("\\Q") && regex.endsWith("\\E") && regex.length() > 4
+				&& regex.indexOf("\\E") == regex.length() - 2) {
+			return literal(regex.substring(2, regex.length() - 2));
+		}
+
+		// a literal string
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < regex.length()) {
+			int c = literalChar(regex, i, ".$|()[{^?*+");
+			if (c < 0) {
+				break;
+			}
+			literal.append((char) c);
+			i += regex.charAt(i) == '\\' ? 2 : 1;
+		}
+		if (i == regex.length()) {
+			return literal(literal.toString());
+		}
+
+		// a set of characters, optionally followed by + for a run of them (if
+		// it's a single character or class)
+		boolean run = regex.endsWith("+") && !regex.endsWith("\\+");
+		String set = run ? regex.substring(0, regex.length() - 1) : regex;
+		CharSet result = new CharSet(run);
+		if (set.equals("\\s")) {
+			addAll(result, WHITESPACE);
+			return result;
+		}
+		if (set.startsWith("[") && set.endsWith("]") && set.length() > 2) {
+			return parseClass(set.substring(1, set.length() - 1), result) ? result : null;
+		}
+		// single characters separated by |
+		if (run && set.indexOf('|') >= 0) {
+			// the + would only apply to the last alternative
+			return null;
+		}
+		for (i = 0; i < set.length();) {
+			int c = literalChar(set, i, ".$|()[{^?*+");
+			if (c < 0) {
+				return null;
+			}
+			result.add((char) c);
+			i += set.charAt(i) == '\\' ? 2 : 1;
+			if (i < set.length() && set.charAt(i++) != '|' || i == set.length() && set.endsWith("|")) {
+				return null;
+			}
+		}
+		return set.isEmpty() ? null : result;
+	}
+
+	private static Delimiter literal(String literal) {
+		if (literal.isEmpty()) {
+			return null;
+		}
+		for (int i = 0; i < literal.length(); i++) {
+			if (Character.isSurrogate(literal.charAt(i))) {
+				// the regex engine matches by code point
+				return null;
+			}
+		}
+		return new Literal(literal);
+	}
+
+	private static void addAll(CharSet set, String chars) {
+		for (int i = 0; i < chars.length(); i++) {
+			set.add(chars.charAt(i));
+		}
+	}
+
+	/**
+	 * Parses the inside of a character class with no negation, nesting or
+	 * intersection.
+	 */
+	private static boolean parseClass(String cls, CharSet result) {
+		for (int i = 0; i < cls.length();) {
+			if (cls.startsWith("\\s", i)) {
+				addAll(result, WHITESPACE);
+				i += 2;
+				continue;
+			}
+			int c = literalChar(cls, i, "[]^-&");
+			if (c < 0) {
+				return false;
+			}
+			i += cls.charAt(i) == '\\' ? 2 : 1;
+			if (i + 1 < cls.length() && cls.charAt(i) == '-') {
+				int end = literalChar(cls, i + 1, "[]^-&");
+				if (end < c) {
+					return false;
+				}
+				for (int k = c; k <= end; k++) {
+					result.add((char) k);
+				}
+				i += cls.charAt(i + 1) == '\\' ? 3 : 2;
+			} else {
+				result.add((char) c);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the character matched by the literal character or simple escape
+	 *         sequence at index {@code i} of {@code regex}, or -1 if it isn't
+	 *         one.
+	 */
+	private static int literalChar(String regex, int i, String metaChars) {
+		char c = regex.charAt(i);
+		if (Character.isSurrogate(c)) {
+			return -1;
+		}
+		if (c != '\\') {
+			return metaChars.indexOf(c) < 0 ? c : -1;
+		}
+		if (i + 1 >= regex.length()) {
+			return -1;
+		}
+		c = regex.charAt(i + 1);
+		switch (c) {
+		case 't':
+			return '\t';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 'f':
+			return '\f';
+		case 'a':
+			return '\u0007';
+		case 'e':
+			return '\u001B';
+		}
+		boolean alphanumeric = c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+		return alphanumeric || Character.isSurrogate(c) ? -1 : c;
+	}
+}
@@ -0,0 +1,331 @@
+package org.andork.segment;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * The fields of a line of whitespace- or delimiter-separated values, filled
+ * in by {@link SegmentParser#fields(Fields)} in a single scan of the line.
+ * Reuse the same instance for every line: the field boundaries are recorded
+ * in an {@code int} array that's only reallocated when a line has more
+ * fields than any before it, and {@code Segment}s and {@code String}s are
+ * only created for the fields that are asked for.
+ * <p>
+ * Optionally, fields can be {@linkplain #quote(char) quoted} and delimiters
+ * can be {@linkplain #escape(char) escaped}. The spans and {@code Segment}s of
+ * quoted fields don't include the quotes, and {@link #text(int)} removes
+ * escape characters and doubled quotes.
+ */
+public final class Fields {
+	private static final int QUOTED = 1;
+	private static final int ESCAPED = 2;
+	private static final int NONE = -1;
+
+	/**
+	 * The delimiter, or {@link #NONE} to separate fields by runs of
+	 * whitespace.
+	 */
+	private final int delimiter;
+	private int quote = NONE;
+	private int escape = NONE;
+
+	private Segment segment;
+	private int lineEnd;
+	/**
+	 * The start, end and flags of each field.
+	 */
+	private int[] bounds = new int[48];
+	private int count;
+
+	private Fields(int delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * @return {@code Fields} separated by runs of whitespace (ignoring
+	 *         whitespace at the beginning and end of the line).
+	 */
+	public static Fields whitespace() {
+		return new Fields(NONE);
+	}
+
+	/**
+	 * @return {@code Fields} separated by the given delimiter. Consecutive
+	 *         delimiters have an empty field between them.
+	 */
+	public static Fields delimitedBy(char delimiter) {
+		return new Fields(delimiter);
+	}
+
+	/**
+	 * Allows fields to be enclosed in the given quote character, so that they
+	 * can contain delimiters. Unless an {@linkplain #escape(char) escape
+	 * character} is set, a quote character is included in a quoted field by
+	 * doubling it.
+	 */
+	public Fields quote(char quote) {
+		this.quote = quote;
+		return this;
+	}
+
+	/**
+	 * Makes the character after the given escape character part of the field,
+	 * even if it's a delimiter or quote character.
+	 */
+	public Fields escape(char escape) {
+		this.escape = escape;
+		return this;
+	}
+
+	private boolean isSeparator(char c) {
+		return delimiter == NONE ? Character.isWhitespace(c) : c == delimiter;
+	}
+
+	private void add(int start, int end, int flags) {
+		if (count * 3 == bounds.length) {
+			bounds = Arrays.copyOf(bounds, bounds.length * 2);
+		}
+		bounds[count * 3] = start;
+		bounds[count * 3 + 1] = end;
+		bounds[count * 3 + 2] = flags;
+		count++;
+	}
+
+	/**
+	 * Records the fields of the line of {@code segment} starting at
+	 * {@code index}.
+	 *
+	 * @return the index of the end of the line (its line break, or the end of
+	 *         the segment).
+	 */
+	int scan(Segment segment, int index) throws SegmentParseException {
+		CharSequence s = segment.text();
+		int length = s.length();
+		int lineEnd = LineBreaks.find(s, index, length);
+		if (lineEnd < 0) {
+			lineEnd = length;
+		}
+		this.segment = segment;
+		this.lineEnd = lineEnd;
+		count = 0;
+
+		int i = index;
+		if (delimiter == NONE) {
+			while (i < lineEnd && Character.isWhitespace(s.charAt(i))) {
+				i++;
+			}
+		}
+		if (i == lineEnd) {
+			return lineEnd;
+		}
+		while (true) {
+			if (quote != NONE && i < lineEnd && s.charAt(i) == quote) {
+				int open = i++;
+				int start = i;
+				while (true) {
+					if (i >= lineEnd) {
+						throw new SegmentParseException("unterminated quote", segment.charAtAsSegment(open));
+					}
+					char c = s.charAt(i);
+					if (c == escape) {
+						i = Math.min(i + 2, lineEnd);
+					} else if (c != quote) {
+						i++;
+					} else if (escape == NONE && i + 1 < lineEnd && s.charAt(i + 1) == quote) {
+						i += 2;
+					} else {
+						break;
+					}
+				}
+				add(start, i++, QUOTED | ESCAPED);
+				if (i < lineEnd && !isSeparator(s.charAt(i))) {
+					throw new SegmentParseException("expected delimiter after closing quote",
+							segment.charAtAsSegment(i));
+				}
+			} else {
+				int start = i;
+				int flags = 0;
+				while (i < lineEnd) {
+					char c = s.charAt(i);
+					if (c == escape) {
+						flags = ESCAPED;
+						i = Math.min(i + 2, lineEnd);
+					} else if (isSeparator(c)) {
+						break;
+					} else {
+						i++;
+					}
+				}
+				add(start, i, flags);
+			}
+
+			if (delimiter == NONE) {
+				while (i < lineEnd && Character.isWhitespace(s.charAt(i))) {
+					i++;
+				}
+				if (i == lineEnd) {
+					return lineEnd;
+				}
+			} else if (i++ == lineEnd) {
+				return lineEnd;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of fields on the line.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the index (in the parser's segment) where the given field
+	 *         starts, after its opening quote if it's quoted.
+	 */
+	public int start(int field) {
+		checkIndex(field);
+		return bounds[field * 3];
+	}
+
+	/**
+	 * @return the index (in the parser's segment) where the given field ends,
+	 *         before its closing quote if it's quoted.
+	 */
+	public int end(int field) {
+		checkIndex(field);
+		return bounds[field * 3 + 1];
+	}
+
+	private void checkIndex(int field) {
+		if (field < 0 || field >= count) {
+			throw new IndexOutOfBoundsException("field: " + field + ", size: " + count);
+		}
+	}
+
+	/**
+	 * @throws SegmentParseException
+	 *             (at the end of the line) if there are fewer than
+	 *             {@code count} fields.
+	 */
+	public Fields require(int count) throws SegmentParseException {
+		if (this.count < count) {
+			throw new SegmentParseException("expected " + count + " fields", segment.charAtAsSegment(lineEnd));
+		}
+		return this;
+	}
+
+	private void checkField(int field) throws SegmentParseException {
+		if (field >= count) {
+			throw new SegmentParseException("missing field " + (field + 1), segment.charAtAsSegment(lineEnd));
+		}
+		checkIndex(field);
+	}
+
+	/**
+	 * @return a {@code Segment} of the given field (without quotes, but with
+	 *         any escape characters).
+	 * @throws SegmentParseException
+	 *             (at the end of the line) if the field is missing.
+	 */
+	public Segment segment(int field) throws SegmentParseException {
+		checkField(field);
+		return segment.substring(bounds[field * 3], bounds[field * 3 + 1]);
+	}
+
+	/**
+	 * @return the text of the given field, without quotes or escape
+	 *         characters.
+	 * @throws SegmentParseException
+	 *             (at the end of the line) if the field is missing.
+	 */
+	public String text(int field) throws SegmentParseException {
+		checkField(field);
+		CharSequence s = segment.text();
+		int start = bounds[field * 3];
+		int end = bounds[field * 3 + 1];
+		if ((bounds[field * 3 + 2] & ESCAPED) == 0) {
+			return s.subSequence(start, end).toString();
+		}
+		boolean quoted = (bounds[field * 3 + 2] & QUOTED) != 0;
+		StringBuilder result = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if ((c == escape || quoted && c == quote) && i + 1 < end) {
+				c = s.charAt(++i);
+			}
+			result.append(c);
+		}
+		return result.toString();
+	}
+
+	public int parseInt(int field) throws SegmentParseException {
+		return parseInt(field, "invalid integer");
+	}
+
+	public int parseInt(int field, String errorMessage) throws SegmentParseException {
+		long value = parseLong(field, errorMessage);
+		if (value != (int) value) {
+			throw new SegmentParseException(errorMessage, segment(field));
+		}
+		return (int) value;
+	}
+
+	public long parseLong(int field) throws SegmentParseException {
+		return parseLong(field, "invalid integer");
+	}
+
+	/**
+	 * Parses the given field as a decimal integer without creating a
+	 * {@code String}.
+	 */
+	public long parseLong(int field, String errorMessage) throws SegmentParseException {
+		checkField(field);
+		CharSequence s = segment.text();
+		int i = bounds[field * 3];
+		int end = bounds[field * 3 + 1];
+		boolean negative = i < end && s.charAt(i) == '-';
+		if (i < end && (negative || s.charAt(i) == '+')) {
+			i++;
+		}
+		if (i == end) {
+			throw new SegmentParseException(errorMessage, segment(field));
+		}
+		// accumulate negatively, since Long.MIN_VALUE has no positive
+		// counterpart
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = s.charAt(i) - '0';
+			if (digit < 0 || digit > 9 || value < limit / 10 || value * 10 < limit + digit) {
+				throw new SegmentParseException(errorMessage, segment(field));
+			}
+			value = value * 10 - digit;
+		}
+		return negative ? value : -value;
+	}
+
+	public double parseDouble(int field) throws SegmentParseException {
+		return parseDouble(field, "invalid number");
+	}
+
+	public double parseDouble(int field, String errorMessage) throws SegmentParseException {
+		try {
+			return Double.parseDouble(text(field));
+		} catch (NumberFormatException ex) {
+			throw new SegmentParseException(errorMessage, ex, segment(field));
+		}
+	}
+
+	public BigDecimal bigDecimal(int field) throws SegmentParseException {
+		return bigDecimal(field, "invalid number");
+	}
+
+	public BigDecimal bigDecimal(int field, String errorMessage) throws SegmentParseException {
+		try {
+			return new BigDecimal(text(field));
+		} catch (NumberFormatException ex) {
+			throw new SegmentParseException(errorMessage, ex, segment(field));
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package org.andork.segment;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors {@link Segment#readFiles(java.util.Collection,
+ * java.nio.charset.Charset)} loads files with.
+ * <p>
+ * This is the Java 8 implementation, which uses a bounded pool of platform
+ * threads; the multi-release JAR contains one for newer JDKs in
+ * {@code META-INF/versions}.
+ */
+final class FileLoadingExecutors {
+	private FileLoadingExecutors() {
+	}
+
+	static ExecutorService newExecutor(int fileCount) {
+		int threads = Math.min(fileCount, Runtime.getRuntime().availableProcessors() * 2);
+		return Executors.newFixedThreadPool(Math.max(threads, 1));
+	}
+}
@@ -0,0 +1,94 @@
+package org.andork.segment;
+
+/**
+ * A region of a {@link LargeSource}, with 64-bit offsets and line numbers.
+ * Use {@link #toSegment()} to work with it as an ordinary {@link Segment}
+ * once it's small enough.
+ */
+public final class LargeSegment {
+	public final LargeSource source;
+	/**
+	 * The offset of the first byte.
+	 */
+	public final long start;
+	/**
+	 * The offset after the last byte.
+	 */
+	public final long end;
+	public final long startLine;
+	/**
+	 * The column of the first character, which is a {@code long} because
+	 * lines may be longer than 2 GB.
+	 */
+	public final long startCol;
+	public final long endLine;
+	/**
+	 * @see Segment#endCol
+	 */
+	public final long endCol;
+
+	LargeSegment(LargeSource source, long start, long end, long startLine, long startCol, long endLine,
+			long endCol) {
+		this.source = source;
+		this.start = start;
+		this.end = end;
+		this.startLine = startLine;
+		this.startCol = startCol;
+		this.endLine = endLine;
+		this.endCol = endCol;
+	}
+
+	/**
+	 * @return the size of this segment in bytes.
+	 */
+	public long size() {
+		return end - start;
+	}
+
+	/**
+	 * @return a sub-region of this segment, from byte offsets relative to its
+	 *         start.
+	 */
+	public LargeSegment subsegment(long beginOffset, long endOffset) {
+		if (beginOffset < 0 || endOffset > size() || beginOffset > endOffset) {
+			throw new IndexOutOfBoundsException("begin " + beginOffset + ", end " + endOffset + ", size " + size());
+		}
+		return source.segment(start + beginOffset, start + endOffset);
+	}
+
+	/**
+	 * Decodes this segment into an ordinary {@link Segment} with the same
+	 * source, lines and columns. Its {@link Segment#sourceSegment} contains the
+	 * full lines this segment is in, so that
+	 * {@link Segment#underlineInContext()} works.
+	 *
+	 * @throws ArithmeticException
+	 *             if those lines are 2 GB or larger, or the line numbers or
+	 *             columns don't fit in an {@code int}.
+	 */
+	public Segment toSegment() {
+		long contextStart = source.lineStart(startLine);
+		long contextEnd = endLine + 1 < source.lineCount() ? source.lineStart(endLine + 1) : source.size();
+		Math.toIntExact(endLine);
+		Segment context = new Segment(source.decode(contextStart, contextEnd), source.path,
+				Math.toIntExact(startLine), 0);
+		int beginIndex = Math.toIntExact(startCol);
+		return context.substring(beginIndex, beginIndex + Math.toIntExact(source.charCount(start, end)));
+	}
+
+	/**
+	 * @throws ArithmeticException
+	 *             if this segment is 2 GB or larger.
+	 */
+	@Override
+	public String toString() {
+		return source.decode(start, end);
+	}
+
+	/**
+	 * @see Segment#underlineInContext()
+	 */
+	public String underlineInContext() {
+		return toSegment().underlineInContext();
+	}
+}
@@ -0,0 +1,283 @@
+package org.andork.segment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped file that may be too large for a {@link String} (over 2 GB),
+ * for making {@link LargeSegment}s with 64-bit offsets and line numbers that
+ * are correct across the whole file.
+ * <p>
+ * Offsets are in bytes, but columns are in characters like everywhere else.
+ * The encoding must be ASCII-compatible (like UTF-8 or ISO-8859-1), so that
+ * line breaks can be found without decoding. Columns are counted by decoding
+ * the mapped bytes into a small reused buffer, so lines of any length are
+ * fine.
+ */
+public class LargeSource implements Closeable {
+	private static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+	private static final int DEFAULT_CHECKPOINT_INTERVAL = 64;
+
+	public final Path path;
+	public final Charset encoding;
+	private final FileChannel channel;
+	private final long size;
+	private final int chunkSize;
+	private final MappedByteBuffer[] chunks;
+
+	/**
+	 * The start offsets of every {@link #checkpointInterval}th line, which
+	 * takes much less memory than the start of every line; the lines in between
+	 * are found by scanning.
+	 */
+	private final long[] checkpoints;
+	private final int checkpointInterval;
+	private final long lineCount;
+
+	/**
+	 * For {@link #charCount(long, long)}; guarded by {@code this}.
+	 */
+	private final CharsetDecoder decoder;
+	private final CharBuffer decoded = CharBuffer.allocate(4096);
+	/**
+	 * The bytes of a character split between two chunks.
+	 */
+	private final ByteBuffer carry = ByteBuffer.allocate(16);
+
+	LargeSource(Path path, Charset encoding, int chunkSize, int checkpointInterval) throws IOException {
+		ByteBuffer lineBreak = encoding.encode("\r\n");
+		if (lineBreak.remaining() != 2 || lineBreak.get(0) != '\r' || lineBreak.get(1) != '\n') {
+			throw new IllegalArgumentException("encoding must be ASCII-compatible: " + encoding);
+		}
+		this.path = path;
+		this.encoding = encoding;
+		this.chunkSize = chunkSize;
+		this.checkpointInterval = checkpointInterval;
+		decoder = encoding.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			size = channel.size();
+			chunks = new MappedByteBuffer[(int) ((size + chunkSize - 1) / chunkSize)];
+			for (int i = 0; i < chunks.length; i++) {
+				long start = (long) i * chunkSize;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, size - start));
+			}
+
+			long[] checkpoints = new long[16];
+			int checkpointCount = 1;
+			long lineCount = 1;
+			for (long offset = 0; offset < size; offset++) {
+				byte b = get(offset);
+				if (b == '\r' && offset + 1 < size && get(offset + 1) == '\n') {
+					offset++;
+				} else if (b != '\r' && b != '\n') {
+					continue;
+				}
+				if (lineCount++ % checkpointInterval == 0) {
+					if (checkpointCount == checkpoints.length) {
+						checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+					}
+					checkpoints[checkpointCount++] = offset + 1;
+				}
+			}
+			this.checkpoints = Arrays.copyOf(checkpoints, checkpointCount);
+			this.lineCount = lineCount;
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Maps the given file and indexes its lines.
+	 */
+	public static LargeSource open(Path path, Charset encoding) throws IOException {
+		return new LargeSource(path, encoding, DEFAULT_CHUNK_SIZE, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private byte get(long offset) {
+		return chunks[(int) (offset / chunkSize)].get((int) (offset % chunkSize));
+	}
+
+	/**
+	 * @return the size of the file, in bytes.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of lines, counting an empty last line after a
+	 *         trailing line break.
+	 */
+	public long lineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @return the offset after the line break at or after {@code offset}, or
+	 *         -1 if there is none.
+	 */
+	private long nextLineStart(long offset) {
+		while (offset < size) {
+			byte b = get(offset++);
+			if (b == '\n' || b == '\r' && (offset == size || get(offset) != '\n')) {
+				return offset;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the offset where the given line starts.
+	 */
+	public long lineStart(long line) {
+		if (line < 0 || line >= lineCount) {
+			throw new IndexOutOfBoundsException("line: " + line + ", line count: " + lineCount);
+		}
+		long offset = checkpoints[(int) (line / checkpointInterval)];
+		for (long i = line % checkpointInterval; i > 0; i--) {
+			offset = nextLineStart(offset);
+		}
+		return offset;
+	}
+
+	/**
+	 * @return the line containing the given offset.
+	 */
+	public long lineOf(long offset) {
+		if (offset < 0 || offset > size) {
+			throw new IndexOutOfBoundsException("offset: " + offset + ", size: " + size);
+		}
+		int checkpoint = Arrays.binarySearch(checkpoints, offset);
+		if (checkpoint >= 0) {
+			return (long) checkpoint * checkpointInterval;
+		}
+		checkpoint = -checkpoint - 2;
+		long line = (long) checkpoint * checkpointInterval;
+		long start = checkpoints[checkpoint];
+		while (true) {
+			start = nextLineStart(start);
+			if (start < 0 || start > offset) {
+				return line;
+			}
+			line++;
+		}
+	}
+
+	/**
+	 * @return the number of characters the bytes in the given range decode to
+	 *         (the same as {@code decode(start, end).length()}, without
+	 *         allocating).
+	 */
+	synchronized long charCount(long start, long end) {
+		decoder.reset();
+		carry.clear();
+		long count = 0;
+		long offset = start;
+		while (offset < end) {
+			ByteBuffer in = chunks[(int) (offset / chunkSize)].duplicate();
+			in.position((int) (offset % chunkSize));
+			in.limit((int) Math.min(in.limit(), in.position() + (end - offset)));
+			offset += in.remaining();
+			while (carry.position() > 0 && in.hasRemaining()) {
+				carry.put(in.get());
+				carry.flip();
+				count += decode(carry, false);
+				carry.compact();
+			}
+			count += decode(in, false);
+			carry.put(in);
+		}
+		carry.flip();
+		count += decode(carry, true);
+		decoded.clear();
+		decoder.flush(decoded);
+		return count + decoded.position();
+	}
+
+	/**
+	 * @return the number of characters decoded from {@code in}.
+	 */
+	private int decode(ByteBuffer in, boolean endOfInput) {
+		int count = 0;
+		CoderResult result;
+		do {
+			decoded.clear();
+			result = decoder.decode(in, decoded, endOfInput);
+			count += decoded.position();
+		} while (result.isOverflow());
+		return count;
+	}
+
+	/**
+	 * Decodes the bytes in the given range.
+	 *
+	 * @throws ArithmeticException
+	 *             if the range is 2 GB or larger.
+	 */
+	String decode(long start, long end) {
+		byte[] bytes = new byte[Math.toIntExact(end - start)];
+		int filled = 0;
+		while (filled < bytes.length) {
+			long offset = start + filled;
+			ByteBuffer chunk = chunks[(int) (offset / chunkSize)].duplicate();
+			chunk.position((int) (offset % chunkSize));
+			int n = Math.min(chunk.remaining(), bytes.length - filled);
+			chunk.get(bytes, filled, n);
+			filled += n;
+		}
+		return new String(bytes, encoding);
+	}
+
+	/**
+	 * @param start
+	 *            the offset of the first byte.
+	 * @param end
+	 *            the offset after the last byte.
+	 */
+	public LargeSegment segment(long start, long end) {
+		if (start < 0 || end > size || start > end) {
+			throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", size " + size);
+		}
+		long startLine = lineOf(start);
+		long startCol = charCount(lineStart(startLine), start);
+		long endLine = startLine;
+		long endCol = startCol - 1;
+		if (end > start) {
+			endLine = lineOf(end - 1);
+			endCol = endLine == startLine ? startCol + charCount(start, end) - 1
+					: charCount(lineStart(endLine), end) - 1;
+		}
+		return new LargeSegment(this, start, end, startLine, startCol, endLine, endCol);
+	}
+
+	/**
+	 * @return a segment of the given line, without its line break.
+	 */
+	public LargeSegment line(long line) {
+		long start = lineStart(line);
+		long end = line + 1 < lineCount ? lineStart(line + 1) : size;
+		while (end > start && (get(end - 1) == '\n' || get(end - 1) == '\r')) {
+			end--;
+		}
+		return segment(start, end);
+	}
+}
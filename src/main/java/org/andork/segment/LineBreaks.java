@@ -0,0 +1,38 @@
+package org.andork.segment;
+
+/**
+ * Scans for line breaks ({@code \r\n}, {@code \r} or {@code \n}), which is
+ * what most of the time spent constructing {@link Segment}s goes to.
+ * <p>
+ * This is the Java 8 implementation; the multi-release JAR contains a faster
+ * one for newer JDKs in {@code META-INF/versions}.
+ */
+final class LineBreaks {
+	private LineBreaks() {
+	}
+
+	/**
+	 * @return the index of the first {@code \r} or {@code \n} in the given
+	 *         region of {@code s}, or -1 if there is none.
+	 */
+	static int find(CharSequence s, int from, int to) {
+		for (int i = from; i < to; i++) {
+			char c = s.charAt(i);
+			if (c == '\n' || c == '\r') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param index
+	 *            the index of a line break found by
+	 *            {@link #find(CharSequence, int, int)}.
+	 * @return the index after the line break (which is two characters long if
+	 *         it's a {@code \r\n} that ends before {@code to}).
+	 */
+	static int end(CharSequence s, int index, int to) {
+		return s.charAt(index) == '\r' && index + 1 < to && s.charAt(index + 1) == '\n' ? index + 2 : index + 1;
+	}
+}
@@ -0,0 +1,106 @@
+package org.andork.segment;
+
+import java.util.Arrays;
+
+/**
+ * The indices where each line of a {@link Segment} begins, for looking up the
+ * line and column of any index in logarithmic time. Line breaks are the same
+ * as everywhere else in this package: {@code \r\n}, {@code \r} or
+ * {@code \n}.
+ */
+final class LineIndex {
+	private final int[] lineStarts;
+	private final int lineCount;
+	final int startLine;
+	final int startCol;
+	private long[] hashes;
+
+	private LineIndex(int[] lineStarts, int lineCount, int startLine, int startCol) {
+		this.lineStarts = lineStarts;
+		this.lineCount = lineCount;
+		this.startLine = startLine;
+		this.startCol = startCol;
+	}
+
+	static LineIndex of(CharSequence value, int startLine, int startCol) {
+		int[] lineStarts = new int[16];
+		int lineCount = 1;
+		int length = value.length();
+		for (int i = LineBreaks.find(value, 0, length); i >= 0; i = LineBreaks.find(value, i, length)) {
+			i = LineBreaks.end(value, i, length);
+			if (lineCount == lineStarts.length) {
+				lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+			}
+			lineStarts[lineCount++] = i;
+		}
+		return new LineIndex(lineStarts, lineCount, startLine, startCol);
+	}
+
+	/**
+	 * @return the number of lines, counting an empty last line after a
+	 *         trailing line break.
+	 */
+	int lineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @return the index of the given line (relative to the first line, which
+	 *         is 0 regardless of {@link #startLine}).
+	 */
+	int lineStart(int relativeLine) {
+		return lineStarts[relativeLine];
+	}
+
+	/**
+	 * @return the line containing the given index, relative to the first line
+	 *         (which is 0 regardless of {@link #startLine}).
+	 */
+	int relativeLineOf(int index) {
+		int i = Arrays.binarySearch(lineStarts, 0, lineCount, index);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	int line(int index) {
+		return startLine + relativeLineOf(index);
+	}
+
+	int col(int index) {
+		int relativeLine = relativeLineOf(index);
+		return index - lineStarts[relativeLine] + (relativeLine == 0 ? startCol : 0);
+	}
+
+	/**
+	 * @param value
+	 *            the text this index was built from.
+	 * @return a hash of each line, including its line break (computed on the
+	 *         first call).
+	 */
+	long[] hashes(CharSequence value) {
+		if (hashes == null) {
+			long[] result = new long[lineCount];
+			for (int line = 0; line < lineCount; line++) {
+				int end = line + 1 < lineCount ? lineStarts[line + 1] : value.length();
+				long hash = 0xcbf29ce484222325L;
+				for (int i = lineStarts[line]; i < end; i++) {
+					hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+				}
+				result[line] = hash;
+			}
+			hashes = result;
+		}
+		return hashes;
+	}
+
+	/**
+	 * @return the index of the given line and column, which may be beyond the
+	 *         end of that line if the column is.
+	 */
+	int index(int line, int col) {
+		int relativeLine = line - startLine;
+		if (relativeLine < 0 || relativeLine >= lineCount) {
+			throw new IndexOutOfBoundsException("line " + line + " is out of bounds");
+		}
+		return lineStarts[relativeLine] + col - (relativeLine == 0 ? startCol : 0);
+	}
+}
@@ -0,0 +1,142 @@
+package org.andork.segment;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A list of patterns for {@link SegmentParser#matchAny(PatternAlternatives)},
+ * compiled once into a single pattern of the form {@code (?:(p1)|(p2)|...)},
+ * so that trying all of them at an index takes one match instead of one per
+ * pattern. Like separate calls to {@link SegmentParser#match(Pattern, String)},
+ * the first pattern that matches wins, even if a later one would match more.
+ * <p>
+ * Patterns that can't be combined without changing their meaning (ones with
+ * backreferences, flags that have no inline form, or group names used by
+ * another pattern) are matched one at a time instead.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class PatternAlternatives {
+	/**
+	 * The flags that can be applied to part of a pattern with
+	 * {@code (?flags:...)}, in the order of {@link #INLINE_FLAG_CHARS}.
+	 * {@link Pattern#COMMENTS} is left out because a comment at the end of a
+	 * pattern would swallow the closing parenthesis.
+	 */
+	private static final int[] INLINE_FLAGS = { Pattern.UNIX_LINES, Pattern.CASE_INSENSITIVE, Pattern.MULTILINE,
+			Pattern.DOTALL, Pattern.UNICODE_CASE, Pattern.UNICODE_CHARACTER_CLASS };
+	private static final String INLINE_FLAG_CHARS = "dimsuU";
+
+	final Pattern[] patterns;
+	/**
+	 * The number of groups in each pattern.
+	 */
+	final int[] groupCounts;
+	/**
+	 * The combined pattern, or {@code null} if the patterns can't be combined.
+	 */
+	final Pattern combined;
+	/**
+	 * The group in {@link #combined} that contains each pattern.
+	 */
+	final int[] groupOffsets;
+
+	private PatternAlternatives(Pattern[] patterns, int[] groupCounts, Pattern combined, int[] groupOffsets) {
+		this.patterns = patterns;
+		this.groupCounts = groupCounts;
+		this.combined = combined;
+		this.groupOffsets = groupOffsets;
+	}
+
+	public static PatternAlternatives of(Pattern... patterns) {
+		if (patterns.length == 0) {
+			throw new IllegalArgumentException("at least one pattern is required");
+		}
+		patterns = patterns.clone();
+		int[] groupCounts = new int[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			groupCounts[i] = patterns[i].matcher("").groupCount();
+		}
+		int[] groupOffsets = new int[patterns.length];
+		StringBuilder combined = new StringBuilder("(?:");
+		int groupCount = 0;
+		for (int i = 0; i < patterns.length; i++) {
+			String inline = inlineFlags(patterns[i].flags());
+			if (inline == null || hasBackreference(patterns[i].pattern())) {
+				return new PatternAlternatives(patterns, groupCounts, null, null);
+			}
+			if (i > 0) {
+				combined.append('|');
+			}
+			combined.append(inline.isEmpty() ? "(" : "((?" + inline + ":").append(patterns[i].pattern())
+					.append(inline.isEmpty() ? ")" : "))");
+			groupOffsets[i] = ++groupCount;
+			groupCount += groupCounts[i];
+		}
+		combined.append(')');
+		try {
+			Pattern result = Pattern.compile(combined.toString());
+			if (result.matcher("").groupCount() == groupCount) {
+				return new PatternAlternatives(patterns, groupCounts, result, groupOffsets);
+			}
+		} catch (PatternSyntaxException ex) {
+			// e.g. duplicate group names, or an unterminated \Q
+		}
+		return new PatternAlternatives(patterns, groupCounts, null, null);
+	}
+
+	public static PatternAlternatives of(String... patterns) {
+		Pattern[] compiled = new Pattern[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			compiled[i] = Pattern.compile(patterns[i]);
+		}
+		return of(compiled);
+	}
+
+	public int size() {
+		return patterns.length;
+	}
+
+	public Pattern get(int alternative) {
+		return patterns[alternative];
+	}
+
+	/**
+	 * @return whether the patterns are matched all at once (rather than one
+	 *         at a time).
+	 */
+	public boolean isCombined() {
+		return combined != null;
+	}
+
+	/**
+	 * @return the inline form of the given flags, or {@code null} if some of
+	 *         them don't have one.
+	 */
+	private static String inlineFlags(int flags) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < INLINE_FLAGS.length; i++) {
+			if ((flags & INLINE_FLAGS[i]) != 0) {
+				result.append(INLINE_FLAG_CHARS.charAt(i));
+				flags &= ~INLINE_FLAGS[i];
+			}
+		}
+		return flags == 0 ? result.toString() : null;
+	}
+
+	/**
+	 * @return whether the given regex may contain a backreference, which
+	 *         would refer to the wrong group once combined.
+	 */
+	private static boolean hasBackreference(String regex) {
+		for (int i = 0; i + 1 < regex.length(); i++) {
+			if (regex.charAt(i) == '\\') {
+				char c = regex.charAt(++i);
+				if (c >= '1' && c <= '9' || c == 'k') {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,94 @@
+package org.andork.segment;
+
+import java.util.Arrays;
+
+/**
+ * The text of a {@link Segment} made by {@link Segment#concat(Segment...)}: a
+ * sequence of pieces that aren't copied, each of which is a {@code Segment}
+ * that knows where it came from. None of the pieces are empty.
+ */
+final class Rope implements CharSequence {
+	final Segment[] pieces;
+	/**
+	 * {@code offsets[i]} is the index where {@code pieces[i]} starts, and
+	 * {@code offsets[pieces.length]} is the length.
+	 */
+	private final int[] offsets;
+	/**
+	 * The piece {@link #charAt(int)} last found, since access is usually
+	 * sequential.
+	 */
+	private int lastPiece;
+
+	Rope(Segment[] pieces) {
+		this.pieces = pieces;
+		offsets = new int[pieces.length + 1];
+		for (int i = 0; i < pieces.length; i++) {
+			offsets[i + 1] = offsets[i] + pieces[i].length();
+		}
+	}
+
+	@Override
+	public int length() {
+		return offsets[pieces.length];
+	}
+
+	@Override
+	public char charAt(int index) {
+		int piece = lastPiece;
+		if (index < offsets[piece] || index >= offsets[piece + 1]) {
+			if (index < 0 || index >= length()) {
+				throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+			}
+			lastPiece = piece = pieceAt(index);
+		}
+		return pieces[piece].charAt(index - offsets[piece]);
+	}
+
+	/**
+	 * @return the index of the piece containing {@code index}, or the last
+	 *         piece if {@code index == length()}.
+	 */
+	int pieceAt(int index) {
+		int i = Arrays.binarySearch(offsets, 0, pieces.length, index);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	int offset(int piece) {
+		return offsets[piece];
+	}
+
+	/**
+	 * @return a {@code Segment} for the given region, which is a substring of
+	 *         a single piece (with its true location) if possible, and
+	 *         otherwise another concatenation.
+	 */
+	Segment segment(int beginIndex, int endIndex) {
+		if (beginIndex < 0 || endIndex > length() || beginIndex > endIndex) {
+			throw new IndexOutOfBoundsException("begin " + beginIndex + ", end " + endIndex + ", length " + length());
+		}
+		int first = pieceAt(beginIndex);
+		if (endIndex <= offsets[first + 1]) {
+			return pieces[first].substring(beginIndex - offsets[first], endIndex - offsets[first]);
+		}
+		int last = pieceAt(endIndex - 1);
+		Segment[] result = Arrays.copyOfRange(pieces, first, last + 1);
+		result[0] = result[0].substring(beginIndex - offsets[first]);
+		result[result.length - 1] = result[result.length - 1].substring(0, endIndex - offsets[last]);
+		return Segment.concat(result);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return segment(start, end);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(length());
+		for (Segment piece : pieces) {
+			sb.append(piece.toString());
+		}
+		return sb.toString();
+	}
+}
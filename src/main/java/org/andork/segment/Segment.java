@@ -1,12 +1,21 @@
 package org.andork.segment;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,13 +24,20 @@ import java.util.regex.Pattern;
  * taking a substring, trimming, splitting, etc. return Segments with correct
  * location information. Line numbers and column numbers should start with 0 --
  * otherwise inconsistent numbering may result.
+ * <p>
+ * Segments from different places can be joined with {@link #concat(Segment...)}
+ * without copying them or losing their locations.
+ * <p>
+ * The text doesn't have to be a {@code String}; a Segment can be made from any
+ * {@link CharSequence} (like a {@link CharBuffer} from a decoder) without
+ * copying it, with {@link #Segment(CharSequence, Object, int, int)}.
  *
  * @author Andy Edwards
  */
 public class Segment implements CharSequence {
 	private static final Pattern LINE_BREAK = Pattern.compile("\r\n|\r|\n");
 
-	private final String value;
+	private final CharSequence value;
 	public final Object source;
 	public final int sourceIndex;
 	public final Segment sourceSegment;
@@ -37,8 +53,13 @@ public class Segment implements CharSequence {
 	private int lastSubstringIndex;
 	private int lastSubstringLine;
 	private int lastSubstringCol;
+	/**
+	 * Only built for roots, and holds everything else that's computed per
+	 * line, to keep the per-Segment overhead to a single field.
+	 */
+	private LineIndex lineIndex;
 
-	protected Segment(Segment sourceSegment, int sourceIndex, String value, Object source, int startLine,
+	protected Segment(Segment sourceSegment, int sourceIndex, CharSequence value, Object source, int startLine,
 			int startCol) {
 		super();
 		this.sourceSegment = sourceSegment;
@@ -49,10 +70,14 @@ public class Segment implements CharSequence {
 		this.startCol = startCol;
 		int endLine = startLine;
 		int endCol = startCol + value.length() - 1;
-		Matcher m = LINE_BREAK.matcher(value);
-		while (m.find() && m.end() < value.length()) {
+		int length = value.length();
+		for (int i = LineBreaks.find(value, 0, length); i >= 0; i = LineBreaks.find(value, i, length)) {
+			i = LineBreaks.end(value, i, length);
+			if (i >= length) {
+				break;
+			}
 			endLine++;
-			endCol = value.length() - m.end() - 1;
+			endCol = length - i - 1;
 		}
 		this.endLine = endLine;
 		this.endCol = endCol;
@@ -61,7 +86,7 @@ public class Segment implements CharSequence {
 		this.lastSubstringCol = startCol;
 	}
 
-	protected Segment(Segment sourceSegment, Integer sourceIndex, String value, Object source, int startLine,
+	protected Segment(Segment sourceSegment, Integer sourceIndex, CharSequence value, Object source, int startLine,
 			int startCol,
 			int endLine, int endCol) {
 		this.sourceSegment = sourceSegment;
@@ -72,11 +97,48 @@ public class Segment implements CharSequence {
 		this.startCol = startCol;
 		this.endLine = endLine;
 		this.endCol = endCol;
+		this.lastSubstringIndex = 0;
+		this.lastSubstringLine = startLine;
+		this.lastSubstringCol = startCol;
 	}
 
 	public Segment(String value, Object source, int startLine, int startCol) {
 		this(null, -1, value, source, startLine, startCol);
 	}
+
+	/**
+	 * Creates a Segment of any {@link CharSequence} without copying it. The
+	 * Segment covers the characters in {@code value} at the time it's created,
+	 * even if more are appended later (for instance to a
+	 * {@link StringBuilder}), but those characters must not be modified. For
+	 * a {@link CharBuffer}, it covers the characters between its position and
+	 * limit, and isn't affected by later changes to its position or limit.
+	 */
+	public Segment(CharSequence value, Object source, int startLine, int startCol) {
+		this(null, -1, fix(value), source, startLine, startCol);
+	}
+
+	/**
+	 * Decodes the given bytes into a Segment backed by a {@link CharBuffer}
+	 * (without copying it into a {@code String}).
+	 */
+	public static Segment decode(ByteBuffer bytes, Charset encoding, Object source) {
+		return new Segment(encoding.decode(bytes), source, 0, 0);
+	}
+
+	/**
+	 * @return a sequence with the same characters as {@code value} whose
+	 *         length won't change.
+	 */
+	private static CharSequence fix(CharSequence value) {
+		if (value instanceof String || value instanceof Rope || value instanceof CharSequenceView) {
+			return value;
+		}
+		if (value instanceof CharBuffer) {
+			return ((CharBuffer) value).slice();
+		}
+		return new CharSequenceView(value, 0, value.length());
+	}
 	
 	public static Segment readFile(String file, Charset encoding) throws IOException {
 		return readFile(Paths.get(file), encoding);
@@ -87,6 +149,130 @@ public class Segment implements CharSequence {
 		return new Segment(new String(bytes, encoding), path, 0, 0);
 	}
 
+	/**
+	 * Reads multiple files concurrently.
+	 *
+	 * @return the {@code Segment} for each file, in the same order as
+	 *         {@code paths}.
+	 */
+	public static List<Segment> readFiles(Collection<Path> paths, Charset encoding) throws IOException {
+		ExecutorService executor = FileLoadingExecutors.newExecutor(paths.size());
+		try {
+			List<Future<Segment>> futures = new ArrayList<>();
+			for (Path path : paths) {
+				futures.add(executor.submit(() -> readFile(path, encoding)));
+			}
+			List<Segment> result = new ArrayList<>();
+			for (Future<Segment> future : futures) {
+				try {
+					result.add(future.get());
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof IOException) {
+						throw (IOException) ex.getCause();
+					}
+					throw new RuntimeException(ex.getCause());
+				}
+			}
+			return result;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while reading files");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the {@link LineIndex} of this Segment (built on the first call).
+	 */
+	LineIndex lineIndex() {
+		if (lineIndex == null) {
+			lineIndex = LineIndex.of(value, startLine, startCol);
+		}
+		return lineIndex;
+	}
+
+	/**
+	 * @return a hash of each line of this Segment, including its line break,
+	 *         for {@link SegmentDiff} (computed on the first call).
+	 */
+	long[] lineHashes() {
+		return lineIndex().hashes(value);
+	}
+
+	/**
+	 * Like {@link #substring(int, int)}, but looks up the position in
+	 * {@link #lineIndex()} instead of scanning for line breaks.
+	 */
+	Segment indexedSubstring(int beginIndex, int endIndex) {
+		LineIndex lines = lineIndex();
+		int startLine = lines.line(beginIndex);
+		int startCol = lines.col(beginIndex);
+		int endLine = startLine;
+		int endCol = startCol - 1;
+		if (endIndex > beginIndex) {
+			endLine = lines.line(endIndex - 1);
+			endCol = lines.col(endIndex - 1);
+		}
+		return new Segment(sourceSegment != null ? sourceSegment : this,
+				sourceIndex >= 0 ? sourceIndex + beginIndex : beginIndex,
+				slice(beginIndex, endIndex), source, startLine, startCol, endLine, endCol);
+	}
+
+	/**
+	 * Joins the given Segments without copying them. The result is a
+	 * {@code Segment} whose substrings (including the ones made by
+	 * {@link SegmentParser} and {@link SegmentMatcher}) keep the true location
+	 * of each piece, as long as they lie within a single piece. Its own
+	 * {@link #source}, {@link #startLine} and {@link #startCol} are those of
+	 * the first piece and its {@link #endLine} and {@link #endCol} those of
+	 * the last piece, and it has no {@link #sourceSegment}.
+	 */
+	public static Segment concat(Segment... pieces) {
+		List<Segment> nonempty = new ArrayList<>(pieces.length);
+		for (Segment piece : pieces) {
+			if (piece.value instanceof Rope) {
+				nonempty.addAll(Arrays.asList(((Rope) piece.value).pieces));
+			} else if (!piece.isEmpty()) {
+				nonempty.add(piece);
+			}
+		}
+		if (nonempty.size() == 1) {
+			return nonempty.get(0);
+		}
+		if (nonempty.isEmpty()) {
+			return pieces.length > 0 ? pieces[0] : new Segment("", null, 0, 0);
+		}
+		Segment first = nonempty.get(0);
+		Segment last = nonempty.get(nonempty.size() - 1);
+		return new Segment(null, -1, new Rope(nonempty.toArray(new Segment[nonempty.size()])), first.source,
+				first.startLine, first.startCol, last.endLine, last.endCol);
+	}
+
+	/**
+	 * @see #concat(Segment...)
+	 */
+	public static Segment concat(Collection<Segment> pieces) {
+		return concat(pieces.toArray(new Segment[pieces.size()]));
+	}
+
+	/**
+	 * @return {@link #value} as a {@code String}, which copies it if it isn't
+	 *         one. Only for methods that would have to copy it anyway.
+	 */
+	private String string() {
+		return value instanceof String ? (String) value : value.toString();
+	}
+
+	/**
+	 * @return the text of this {@code Segment}, which is a {@link String}
+	 *         unless it was made by {@link #concat(Segment...)} or from another
+	 *         kind of {@code CharSequence}.
+	 */
+	CharSequence text() {
+		return value;
+	}
+
 	public Segment charAfter() {
 		return sourceIndex < 0 || sourceIndex + length() >= sourceSegment.length() ? substring(length())
 				: sourceSegment.substring(sourceIndex + length(), sourceIndex + length() + 1);
@@ -114,121 +300,257 @@ public class Segment implements CharSequence {
 	}
 
 	public int codePointAt(int index) {
-		return value.codePointAt(index);
+		if (value instanceof String) {
+			return ((String) value).codePointAt(index);
+		}
+		checkIndex(index, value.length());
+		return Character.codePointAt(value, index);
 	}
 
 	public int codePointBefore(int index) {
-		return value.codePointBefore(index);
+		if (value instanceof String) {
+			return ((String) value).codePointBefore(index);
+		}
+		checkIndex(index - 1, value.length());
+		return Character.codePointBefore(value, index);
+	}
+
+	private static void checkIndex(int index, int length) {
+		if (index < 0 || index >= length) {
+			throw new StringIndexOutOfBoundsException("index " + index + ", length " + length);
+		}
 	}
 
 	public int codePointCount(int beginIndex, int endIndex) {
-		return value.codePointCount(beginIndex, endIndex);
+		if (value instanceof String) {
+			return ((String) value).codePointCount(beginIndex, endIndex);
+		}
+		return Character.codePointCount(value, beginIndex, endIndex);
 	}
 
 	public int compareTo(String anotherString) {
-		return value.compareTo(anotherString);
+		if (value instanceof String) {
+			return ((String) value).compareTo(anotherString);
+		}
+		int length = Math.min(value.length(), anotherString.length());
+		for (int i = 0; i < length; i++) {
+			char c1 = value.charAt(i);
+			char c2 = anotherString.charAt(i);
+			if (c1 != c2) {
+				return c1 - c2;
+			}
+		}
+		return value.length() - anotherString.length();
 	}
 
 	public int compareToIgnoreCase(String str) {
-		return value.compareToIgnoreCase(str);
+		if (value instanceof String) {
+			return ((String) value).compareToIgnoreCase(str);
+		}
+		int length = Math.min(value.length(), str.length());
+		for (int i = 0; i < length; i++) {
+			char c1 = value.charAt(i);
+			char c2 = str.charAt(i);
+			if (c1 != c2) {
+				// same as String.CASE_INSENSITIVE_ORDER
+				c1 = Character.toUpperCase(c1);
+				c2 = Character.toUpperCase(c2);
+				if (c1 != c2) {
+					c1 = Character.toLowerCase(c1);
+					c2 = Character.toLowerCase(c2);
+					if (c1 != c2) {
+						return c1 - c2;
+					}
+				}
+			}
+		}
+		return value.length() - str.length();
 	}
 
 	public boolean contains(CharSequence s) {
-		return value.contains(s);
+		if (value instanceof String) {
+			return ((String) value).contains(s);
+		}
+		return indexOf(s, 0) >= 0;
 	}
 
 	public boolean contentEquals(CharSequence cs) {
-		return value.contentEquals(cs);
+		if (value instanceof String) {
+			return ((String) value).contentEquals(cs);
+		}
+		if (cs.length() != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (cs.charAt(i) != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public boolean contentEquals(StringBuffer sb) {
-		return value.contentEquals(sb);
+		synchronized (sb) {
+			return contentEquals((CharSequence) sb);
+		}
 	}
 
 	public boolean endsWith(String suffix) {
-		return value.endsWith(suffix);
+		return startsWith(suffix, value.length() - suffix.length());
 	}
 
 	@Override
 	public boolean equals(Object anObject) {
 		if (anObject instanceof Segment) {
-			return value.equals(((Segment) anObject).value);
+			return contentEquals(((Segment) anObject).value);
 		}
-		return value.equals(anObject);
+		return anObject instanceof String && contentEquals((String) anObject);
 	}
 
 	public boolean equalsIgnoreCase(String anotherString) {
-		return value.equalsIgnoreCase(anotherString);
+		return anotherString != null && anotherString.length() == value.length()
+				&& regionMatches(true, 0, anotherString, 0, value.length());
 	}
 
 	public byte[] getBytes() {
-		return value.getBytes();
+		return string().getBytes();
 	}
 
 	public byte[] getBytes(Charset charset) {
-		return value.getBytes(charset);
+		return string().getBytes(charset);
 	}
 
 	@SuppressWarnings("deprecation")
 	public void getBytes(int srcBegin, int srcEnd, byte[] dst, int dstBegin) {
-		value.getBytes(srcBegin, srcEnd, dst, dstBegin);
+		string().getBytes(srcBegin, srcEnd, dst, dstBegin);
 	}
 
 	public byte[] getBytes(String charsetName) throws UnsupportedEncodingException {
-		return value.getBytes(charsetName);
+		return string().getBytes(charsetName);
 	}
 
 	public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
-		value.getChars(srcBegin, srcEnd, dst, dstBegin);
+		if (value instanceof String) {
+			((String) value).getChars(srcBegin, srcEnd, dst, dstBegin);
+			return;
+		}
+		if (srcBegin < 0 || srcBegin > srcEnd || srcEnd > value.length()) {
+			throw new StringIndexOutOfBoundsException("begin " + srcBegin + ", end " + srcEnd);
+		}
+		for (int i = srcBegin; i < srcEnd; i++) {
+			dst[dstBegin++] = value.charAt(i);
+		}
 	}
 
 	@Override
 	public int hashCode() {
-		return value.hashCode();
+		if (value instanceof String) {
+			return value.hashCode();
+		}
+		// same as String.hashCode()
+		int h = 0;
+		for (int i = 0; i < value.length(); i++) {
+			h = 31 * h + value.charAt(i);
+		}
+		return h;
 	}
 
 	public int indexOf(int ch) {
-		return value.indexOf(ch);
+		return indexOf(ch, 0);
 	}
 
 	public int indexOf(int ch, int fromIndex) {
-		return value.indexOf(ch, fromIndex);
+		if (value instanceof String) {
+			return ((String) value).indexOf(ch, fromIndex);
+		}
+		if (Character.isValidCodePoint(ch) && ch >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			return indexOf(new String(Character.toChars(ch)), fromIndex);
+		}
+		for (int i = Math.max(fromIndex, 0); i < value.length(); i++) {
+			if (value.charAt(i) == ch) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	public int indexOf(String str) {
-		return value.indexOf(str);
+		return indexOf(str, 0);
 	}
 
 	public int indexOf(String str, int fromIndex) {
-		return value.indexOf(str, fromIndex);
+		if (value instanceof String) {
+			return ((String) value).indexOf(str, fromIndex);
+		}
+		return indexOf((CharSequence) str, fromIndex);
+	}
+
+	private int indexOf(CharSequence str, int fromIndex) {
+		int last = value.length() - str.length();
+		for (int i = Math.max(fromIndex, 0); i <= last; i++) {
+			if (regionMatches(false, i, str, 0, str.length())) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	public boolean isEmpty() {
-		return value.isEmpty();
+		return value.length() == 0;
 	}
 
 	/**
 	 * @return a Segment representing the same region of text, but without a
-	 *         reference to this Segment's {@link #sourceSegment} (if any).
+	 *         reference to this Segment's {@link #sourceSegment} (if any), or
+	 *         to any more of its text than this region (it's copied into a
+	 *         {@code String} unless it's already one).
 	 */
 	public Segment isolate() {
-		return new Segment(value, source, startLine, startCol);
+		if (value instanceof Rope) {
+			Segment[] pieces = ((Rope) value).pieces.clone();
+			for (int i = 0; i < pieces.length; i++) {
+				pieces[i] = pieces[i].isolate();
+			}
+			return concat(pieces);
+		}
+		// copy views so that the rest of the buffer can be garbage collected
+		return new Segment(null, -1, value instanceof String ? value : value.toString(), source, startLine,
+				startCol, endLine, endCol);
 	}
 
 	public int lastIndexOf(int ch) {
-		return value.lastIndexOf(ch);
+		return lastIndexOf(ch, value.length() - 1);
 	}
 
 	public int lastIndexOf(int ch, int fromIndex) {
-		return value.lastIndexOf(ch, fromIndex);
+		if (value instanceof String) {
+			return ((String) value).lastIndexOf(ch, fromIndex);
+		}
+		if (Character.isValidCodePoint(ch) && ch >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			return lastIndexOf(new String(Character.toChars(ch)), fromIndex);
+		}
+		for (int i = Math.min(fromIndex, value.length() - 1); i >= 0; i--) {
+			if (value.charAt(i) == ch) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	public int lastIndexOf(String str) {
-		return value.lastIndexOf(str);
+		return lastIndexOf(str, value.length());
 	}
 
 	public int lastIndexOf(String str, int fromIndex) {
-		return value.lastIndexOf(str, fromIndex);
+		if (value instanceof String) {
+			return ((String) value).lastIndexOf(str, fromIndex);
+		}
+		for (int i = Math.min(fromIndex, value.length() - str.length()); i >= 0; i--) {
+			if (regionMatches(false, i, str, 0, str.length())) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	@Override
@@ -237,19 +559,49 @@ public class Segment implements CharSequence {
 	}
 
 	public boolean matches(String regex) {
-		return value.matches(regex);
+		return Pattern.matches(regex, value);
 	}
 
 	public int offsetByCodePoints(int index, int codePointOffset) {
-		return value.offsetByCodePoints(index, codePointOffset);
+		if (value instanceof String) {
+			return ((String) value).offsetByCodePoints(index, codePointOffset);
+		}
+		return Character.offsetByCodePoints(value, index, codePointOffset);
 	}
 
 	public boolean regionMatches(boolean ignoreCase, int toffset, String other, int ooffset, int len) {
-		return value.regionMatches(ignoreCase, toffset, other, ooffset, len);
+		if (value instanceof String) {
+			return ((String) value).regionMatches(ignoreCase, toffset, other, ooffset, len);
+		}
+		return regionMatches(ignoreCase, toffset, (CharSequence) other, ooffset, len);
+	}
+
+	private boolean regionMatches(boolean ignoreCase, int toffset, CharSequence other, int ooffset, int len) {
+		if (ooffset < 0 || toffset < 0 || toffset > (long) value.length() - len
+				|| ooffset > (long) other.length() - len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			char c1 = value.charAt(toffset + i);
+			char c2 = other.charAt(ooffset + i);
+			if (c1 == c2) {
+				continue;
+			}
+			if (ignoreCase) {
+				// same as String.regionMatches
+				char u1 = Character.toUpperCase(c1);
+				char u2 = Character.toUpperCase(c2);
+				if (u1 == u2 || Character.toLowerCase(u1) == Character.toLowerCase(u2)) {
+					continue;
+				}
+			}
+			return false;
+		}
+		return true;
 	}
 
 	public boolean regionMatches(int toffset, String other, int ooffset, int len) {
-		return value.regionMatches(toffset, other, ooffset, len);
+		return regionMatches(false, toffset, other, ooffset, len);
 	}
 
 	public Segment[] split(Pattern p) {
@@ -309,68 +661,73 @@ public class Segment implements CharSequence {
 		return split(regex, 0);
 	}
 
+	/**
+	 * Like {@link String#split(String, int)}, but delimiters that are really
+	 * literal strings (like {@code ", "}), sets of characters (like
+	 * {@code "\\t|,"} or {@code "[;,]"}) or runs of them (like
+	 * {@code "\\s+"}) are found without the regex engine, and other regexes
+	 * are only compiled once.
+	 */
 	public Segment[] split(String regex, int limit) {
-		/*
-		 * fastpath if the regex is a (1)one-char String and this character is
-		 * not one of the RegEx's meta characters ".$|()[{^?*+\\", or
-		 * (2)two-char String and the first char is the backslash and the second
-		 * is not the ascii digit or ascii letter.
-		 */
-		char ch = 0;
-		if ((regex.length() == 1 &&
-				".$|()[{^?*+\\".indexOf(ch = regex.charAt(0)) == -1 ||
-				regex.length() == 2 &&
-						regex.charAt(0) == '\\' &&
-						((ch = regex.charAt(1)) - '0' | '9' - ch) < 0 &&
-						(ch - 'a' | 'z' - ch) < 0 &&
-						(ch - 'A' | 'Z' - ch) < 0)
-				&&
-				(ch < Character.MIN_HIGH_SURROGATE ||
-						ch > Character.MAX_LOW_SURROGATE)) {
-			int off = 0;
-			int next = 0;
-			boolean limited = limit > 0;
-			ArrayList<Segment> list = new ArrayList<>();
-			while ((next = indexOf(ch, off)) != -1) {
-				if (!limited || list.size() < limit - 1) {
-					list.add(substring(off, next));
-					off = next + 1;
-				} else { // last one
-							// assert (list.size() == limit - 1);
-					list.add(substring(off, value.length()));
-					off = value.length();
-					break;
-				}
-			}
-			// If no match was found, return this
-			if (off == 0) {
-				return new Segment[] { this };
+		Delimiter delimiter = Delimiter.compile(regex);
+		if (delimiter == null) {
+			return split(Delimiter.pattern(regex), limit);
+		}
+		int off = 0;
+		int next = 0;
+		boolean limited = limit > 0;
+		ArrayList<Segment> list = new ArrayList<>();
+		Segment last = null;
+		while ((next = delimiter.find(value, off)) != -1) {
+			if (!limited || list.size() < limit - 1) {
+				last = substring(last, off, next);
+				list.add(last);
+				off = delimiter.end(value, next);
+			} else { // last one
+						// assert (list.size() == limit - 1);
+				list.add(substring(last, off, value.length()));
+				off = value.length();
+				break;
 			}
+		}
+		// If no match was found, return this
+		if (off == 0) {
+			return new Segment[] { this };
+		}
 
-			// Add remaining segment
-			if (!limited || list.size() < limit) {
-				list.add(substring(off, value.length()));
-			}
+		// Add remaining segment
+		if (!limited || list.size() < limit) {
+			list.add(substring(last, off, value.length()));
+		}
 
-			// Construct result
-			int resultSize = list.size();
-			if (limit == 0) {
-				while (resultSize > 0 && list.get(resultSize - 1).length() == 0) {
-					resultSize--;
-				}
+		// Construct result
+		int resultSize = list.size();
+		if (limit == 0) {
+			while (resultSize > 0 && list.get(resultSize - 1).length() == 0) {
+				resultSize--;
 			}
-			Segment[] result = new Segment[resultSize];
-			return list.subList(0, resultSize).toArray(result);
 		}
-		return split(Pattern.compile(regex), limit);
+		Segment[] result = new Segment[resultSize];
+		return list.subList(0, resultSize).toArray(result);
 	}
 
 	public boolean startsWith(String prefix) {
-		return value.startsWith(prefix);
+		return startsWith(prefix, 0);
 	}
 
 	public boolean startsWith(String prefix, int toffset) {
-		return value.startsWith(prefix, toffset);
+		if (value instanceof String) {
+			return ((String) value).startsWith(prefix, toffset);
+		}
+		if (toffset < 0 || toffset > value.length() - prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (value.charAt(toffset + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	@Override
@@ -382,11 +739,22 @@ public class Segment implements CharSequence {
 		return substring(beginIndex, value.length());
 	}
 
+	/**
+	 * @return the given region of {@link #value}.
+	 */
+	private CharSequence slice(int beginIndex, int endIndex) {
+		return value instanceof String ? ((String) value).substring(beginIndex, endIndex)
+				: value.subSequence(beginIndex, endIndex);
+	}
+
 	public Segment substring(int beginIndex, int endIndex) {
+		if (value instanceof Rope) {
+			return ((Rope) value).segment(beginIndex, endIndex);
+		}
 		if (startLine == endLine) {
 			return new Segment(sourceSegment != null ? sourceSegment : this,
 					sourceIndex >= 0 ? sourceIndex + beginIndex : beginIndex,
-					value.substring(beginIndex, endIndex), source, startLine,
+					slice(beginIndex, endIndex), source, startLine,
 					startCol + beginIndex, startLine, startCol + endIndex - 1);
 		}
 		
@@ -405,43 +773,50 @@ public class Segment implements CharSequence {
 			toIndex--;
 		}
 
-		Matcher m = LINE_BREAK.matcher(value).region(lastSubstringIndex, toIndex);
-
-		while (m.find()) {
+		for (int i = LineBreaks.find(value, lastSubstringIndex, toIndex); i >= 0; i = LineBreaks.find(value, i,
+				toIndex)) {
+			i = LineBreaks.end(value, i, toIndex);
 			newStartLine++;
-			newStartCol = beginIndex - m.end();
-			lastSubstringIndex = m.end();
+			newStartCol = beginIndex - i;
+			lastSubstringIndex = i;
 			lastSubstringLine++;
 			lastSubstringCol = 0;
 		}
 
 		return new Segment(sourceSegment != null ? sourceSegment : this,
 				sourceIndex >= 0 ? sourceIndex + beginIndex : beginIndex,
-				value.substring(beginIndex, endIndex), source, newStartLine, newStartCol);
+				slice(beginIndex, endIndex), source, newStartLine, newStartCol);
 	}
 
 	Segment substring(Segment beforeSegment, int startIndex, int endIndex) {
-		if (beforeSegment == null) {
+		if (beforeSegment == null || startLine == endLine || value instanceof Rope) {
 			return substring(startIndex, endIndex);
 		}
 		int thisSourceIndex = sourceIndex >= 0 ? sourceIndex : 0;
 		int sourceIndex = thisSourceIndex + startIndex;
+		int beforeIndex = beforeSegment.sourceIndex - thisSourceIndex;
 		int startLine = beforeSegment.startLine;
-		int startCol = beforeSegment.startCol;
-		Matcher m = LINE_BREAK.matcher(value);
-		m.region(beforeSegment.sourceIndex - thisSourceIndex, startIndex);
-		while (m.find()) {
+		int startCol = beforeSegment.startCol + startIndex - beforeIndex;
+		int toIndex = startIndex;
+		if (toIndex < value.length() && toIndex > beforeIndex && value.charAt(toIndex) == '\n'
+				&& value.charAt(toIndex - 1) == '\r') {
+			toIndex--;
+		}
+		for (int i = LineBreaks.find(value, beforeIndex, toIndex); i >= 0; i = LineBreaks.find(value, i, toIndex)) {
+			i = LineBreaks.end(value, i, toIndex);
 			startLine++;
-			startCol = startIndex - m.end();
+			startCol = startIndex - i;
 		}
 
 		return new Segment(sourceSegment != null ? sourceSegment : this, sourceIndex,
-				value.substring(startIndex, endIndex),
+				slice(startIndex, endIndex),
 				source, startLine, startCol);
 	}
 
 	public char[] toCharArray() {
-		return value.toCharArray();
+		char[] result = new char[value.length()];
+		getChars(0, result.length, result, 0);
+		return result;
 	}
 
 	@Override
@@ -468,17 +843,31 @@ public class Segment implements CharSequence {
 	 *         it covers
 	 */
 	public String underlineInContext() {
+		if (value instanceof Rope) {
+			// underline each piece in its own context
+			StringBuilder sb = new StringBuilder();
+			for (Segment piece : ((Rope) value).pieces) {
+				if (sb.length() > 0) {
+					sb.append(System.lineSeparator());
+				}
+				sb.append(piece.underlineInContext());
+			}
+			return sb.toString();
+		}
 		StringBuilder sb = new StringBuilder();
 		Segment context = this;
 		if (sourceSegment != null) {
+			// the first line of sourceSegment may not start at column 0
+			int firstLineCol = startLine == sourceSegment.startLine ? sourceSegment.startCol : 0;
+			int lastLineCol = endLine == sourceSegment.startLine ? sourceSegment.startCol : 0;
 			// beginning of this segment's first line
-			int start = sourceIndex - startCol;
+			int start = sourceIndex - startCol + firstLineCol;
 			SegmentMatcher matcher = new SegmentMatcher(sourceSegment, LINE_BREAK);
-			matcher.region(sourceIndex + length() - endCol, sourceSegment.length());
+			matcher.region(sourceIndex + length() - endCol + lastLineCol, sourceSegment.length());
 			// end of this segment's last line
 			int end = matcher.find() ? matcher.start() : sourceSegment.length();
 			// full lines containing this segment
-			context = new Segment(sourceSegment.value.substring(start, end), source, startLine, 0);
+			context = new Segment(null, -1, sourceSegment.slice(start, end), source, startLine, firstLineCol);
 		}
 		Segment[] lines = context.split(LINE_BREAK);
 
@@ -487,18 +876,19 @@ public class Segment implements CharSequence {
 				continue;
 			}
 			sb.append(line).append(System.lineSeparator());
-			int k = 0;
+			// k is the column, which may not start at 0 on the first line
+			int k = line.startCol;
 			if (startLine == line.startLine) {
 				while (k < startCol) {
 					// use the character from line if it's whitespace
 					// so that we get tabs in the same place before the underline
-					char c = line.charAt(k);
+					char c = line.charAt(k - line.startCol);
 					sb.append(Character.isWhitespace(c) ? c : ' ');
 					k++;
 				}
 			}
 			if (line.startLine < endLine) {
-				while (k < line.length()) {
+				while (k < line.startCol + line.length()) {
 					sb.append('^');
 					k++;
 				}
@@ -0,0 +1,308 @@
+package org.andork.segment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An on-disk cache of things parsed from a {@link Segment}, so that unchanged
+ * input doesn't have to be parsed again on every run.
+ * <p>
+ * Entries are keyed by a hash of the text (and start line and column) of the
+ * root {@code Segment} plus a caller-defined key, and are serialized by a
+ * {@link Codec}. {@code Segment}s within an entry are stored as just their
+ * offsets, delta-encoded against the previous {@code Segment}; their lines and
+ * columns are restored from the root's line index, and they're restored as
+ * substrings of the root, so {@link Segment#underlineInContext()} still works.
+ * <p>
+ * When the total size of the entries exceeds the size limit, the least
+ * recently used entries are deleted.
+ * <p>
+ * The root should be an entire source (e.g. from
+ * {@link Segment#readFile(Path, java.nio.charset.Charset)}) rather than a
+ * substring of one.
+ */
+public class SegmentCache {
+	private static final int MAGIC = 0x5345474d; // "SEGM"
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".seg";
+
+	/**
+	 * Converts parse results to and from the cache's binary format.
+	 */
+	public interface Codec<T> {
+		void write(T value, Output out) throws IOException;
+
+		T read(Input in) throws IOException;
+	}
+
+	@FunctionalInterface
+	public interface Parser<T> {
+		T parse(Segment root) throws SegmentParseException;
+	}
+
+	/**
+	 * A {@link DataOutputStream} that can also write {@link Segment}s of the
+	 * root {@code Segment} an entry is for.
+	 */
+	public static class Output extends DataOutputStream {
+		private final Segment root;
+		private int lastIndex = 0;
+
+		Output(OutputStream out, Segment root) {
+			super(out);
+			this.root = root;
+		}
+
+		/**
+		 * Writes a variable-length unsigned integer, using 7 bits per byte.
+		 */
+		public void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7fL) != 0) {
+				write((int) (value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		/**
+		 * Writes a {@code Segment} of the root (or the root itself, or
+		 * {@code null}).
+		 *
+		 * @throws IllegalArgumentException
+		 *             if {@code segment} didn't come from the root.
+		 */
+		public void writeSegment(Segment segment) throws IOException {
+			if (segment == null) {
+				writeVarLong(0);
+				return;
+			}
+			int index;
+			if (segment == root) {
+				index = 0;
+			} else if (segment.sourceSegment == root) {
+				index = segment.sourceIndex;
+			} else {
+				throw new IllegalArgumentException("segment is not from the root segment");
+			}
+			long delta = index - lastIndex;
+			writeVarLong(((delta << 1) ^ (delta >> 63)) + 1);
+			writeVarLong(segment.length());
+			lastIndex = index;
+		}
+	}
+
+	/**
+	 * A {@link DataInputStream} that can also read {@link Segment}s written by
+	 * {@link Output#writeSegment(Segment)}.
+	 */
+	public static class Input extends DataInputStream {
+		private final Segment root;
+		private int lastIndex = 0;
+
+		Input(InputStream in, Segment root) {
+			super(in);
+			this.root = root;
+		}
+
+		public long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readUnsignedByte();
+				value |= (long) (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("malformed variable-length integer");
+		}
+
+		public Segment readSegment() throws IOException {
+			long zigzag = readVarLong();
+			if (zigzag == 0) {
+				return null;
+			}
+			zigzag--;
+			long index = lastIndex + ((zigzag >>> 1) ^ -(zigzag & 1));
+			long length = readVarLong();
+			if (index < 0 || index + length > root.length()) {
+				throw new IOException("segment is out of bounds of the root segment");
+			}
+			lastIndex = (int) index;
+			if (index == 0 && length == root.length()) {
+				return root;
+			}
+			return root.indexedSubstring((int) index, (int) (index + length));
+		}
+	}
+
+	private final Path directory;
+	private final long maxSize;
+
+	/**
+	 * @param directory
+	 *            the directory to store entries in (created if necessary).
+	 * @param maxSize
+	 *            the maximum total size of the entries, in bytes.
+	 */
+	public SegmentCache(Path directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets the cached result for the given root and key, or parses and caches
+	 * it if there is none.
+	 */
+	public <T> T computeIfAbsent(Segment root, String key, Codec<T> codec, Parser<T> parser)
+			throws IOException, SegmentParseException {
+		T result = get(root, key, codec);
+		if (result == null) {
+			result = parser.parse(root);
+			put(root, key, codec, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the cached result for the given root and key, or {@code null} if
+	 *         there is none (or it's unreadable, in which case it's deleted).
+	 */
+	public <T> T get(Segment root, String key, Codec<T> codec) throws IOException {
+		Path file = entryFile(root, key);
+		T result;
+		try (Input in = new Input(new BufferedInputStream(Files.newInputStream(file)), root)) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key)) {
+				throw new IOException("invalid cache entry");
+			}
+			result = codec.read(in);
+		} catch (NoSuchFileException ex) {
+			return null;
+		} catch (IOException | RuntimeException ex) {
+			Files.deleteIfExists(file);
+			return null;
+		}
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException ex) {
+			// e.g. a read-only cache; the entry is still valid, it just won't
+			// count as recently used
+		}
+		return result;
+	}
+
+	/**
+	 * Caches the given result for the given root and key, then evicts the
+	 * least recently used entries if the cache is too big.
+	 */
+	public <T> void put(Segment root, String key, Codec<T> codec, T value) throws IOException {
+		Files.createDirectories(directory);
+		Path file = entryFile(root, key);
+		Path temp = Files.createTempFile(directory, "entry", ".tmp");
+		try {
+			try (Output out = new Output(new BufferedOutputStream(Files.newOutputStream(temp)), root)) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+				codec.write(value, out);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		evict();
+	}
+
+	/**
+	 * Deletes the least recently used entries until the total size is within
+	 * the limit.
+	 */
+	private void evict() throws IOException {
+		List<Path> files = new ArrayList<>();
+		long totalSize = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : stream) {
+				files.add(file);
+				totalSize += sizeOf(file);
+			}
+		}
+		if (totalSize <= maxSize) {
+			return;
+		}
+		files.sort((a, b) -> Long.compare(lastModified(a), lastModified(b)));
+		for (Path file : files) {
+			if (totalSize <= maxSize) {
+				break;
+			}
+			totalSize -= sizeOf(file);
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static long sizeOf(Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException ex) {
+			return 0;
+		}
+	}
+
+	private static long lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file).toMillis();
+		} catch (IOException ex) {
+			return 0;
+		}
+	}
+
+	private Path entryFile(Segment root, String key) {
+		return directory.resolve(hash(root, key) + SUFFIX);
+	}
+
+	private static String hash(Segment root, String key) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new AssertionError(ex);
+		}
+		byte[] buffer = new byte[8192];
+		int length = root.length();
+		for (int i = 0; i < length;) {
+			int n = 0;
+			for (; n < buffer.length && i < length; i++) {
+				char c = root.charAt(i);
+				buffer[n++] = (byte) (c >> 8);
+				buffer[n++] = (byte) c;
+			}
+			digest.update(buffer, 0, n);
+		}
+		digest.update(key.getBytes(StandardCharsets.UTF_8));
+		for (int value : new int[] { root.startLine, root.startCol, length }) {
+			digest.update((byte) (value >> 24));
+			digest.update((byte) (value >> 16));
+			digest.update((byte) (value >> 8));
+			digest.update((byte) value);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,377 @@
+package org.andork.segment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The line-by-line differences between two versions of a root
+ * {@link Segment} (e.g. a file read before and after it was edited), so that
+ * only the changed lines need to be parsed again.
+ * <p>
+ * Lines are compared by the hashes cached on each {@code Segment} (and then by
+ * their text, to rule out collisions), so diffing the same old version against
+ * several new versions only hashes it once. The differences are found with
+ * Myers' algorithm after skipping the common prefix and suffix, which takes
+ * time proportional to the number of lines plus the square of the number of
+ * changed lines. To bound time and memory, if more than
+ * {@value #MAX_EDIT_DISTANCE} lines were inserted or deleted (as for a
+ * reformatted file, or one whose line breaks were converted), everything
+ * between the common prefix and suffix is reported as a single change.
+ * <p>
+ * {@link #map(Segment)} moves a {@code Segment} of the old version to the
+ * new version if the lines it's in are unchanged, so results parsed from the
+ * old version can be reused.
+ */
+public final class SegmentDiff {
+	/**
+	 * The most inserted plus deleted lines to search for; the trace of the
+	 * search takes about 4 * MAX_EDIT_DISTANCE^2 bytes.
+	 */
+	static final int MAX_EDIT_DISTANCE = 1024;
+
+	/**
+	 * A range of changed lines. The ranges include line breaks, so a change
+	 * that deletes lines has an empty {@link #after}, and one that inserts
+	 * lines has an empty {@link #before}.
+	 */
+	public static final class Change {
+		/**
+		 * The first changed line in the old version.
+		 */
+		public final int oldStartLine;
+		/**
+		 * The line after the last changed line in the old version.
+		 */
+		public final int oldEndLine;
+		public final int newStartLine;
+		public final int newEndLine;
+		/**
+		 * The text of the changed lines in the old version.
+		 */
+		public final Segment before;
+		/**
+		 * The text of the changed lines in the new version.
+		 */
+		public final Segment after;
+
+		Change(int oldStartLine, int oldEndLine, int newStartLine, int newEndLine, Segment before,
+				Segment after) {
+			this.oldStartLine = oldStartLine;
+			this.oldEndLine = oldEndLine;
+			this.newStartLine = newStartLine;
+			this.newEndLine = newEndLine;
+			this.before = before;
+			this.after = after;
+		}
+
+		@Override
+		public String toString() {
+			return "lines " + oldStartLine + "-" + oldEndLine + " -> " + newStartLine + "-" + newEndLine;
+		}
+	}
+
+	public final Segment oldRoot;
+	public final Segment newRoot;
+
+	/**
+	 * The runs of unchanged lines (relative to the first line of each root),
+	 * in order: {@code runLengths[i]} lines starting at {@code runOldStarts[i]}
+	 * in the old version are the same as the ones starting at
+	 * {@code runNewStarts[i]} in the new version.
+	 */
+	private final int[] runOldStarts;
+	private final int[] runNewStarts;
+	private final int[] runLengths;
+	private final List<Change> changes;
+
+	private SegmentDiff(Segment oldRoot, Segment newRoot, int[] runOldStarts, int[] runNewStarts,
+			int[] runLengths) {
+		this.oldRoot = oldRoot;
+		this.newRoot = newRoot;
+		this.runOldStarts = runOldStarts;
+		this.runNewStarts = runNewStarts;
+		this.runLengths = runLengths;
+
+		List<Change> changes = new ArrayList<>();
+		int oldLine = 0;
+		int newLine = 0;
+		for (int run = 0; run <= runLengths.length; run++) {
+			int oldEnd = run < runLengths.length ? runOldStarts[run] : oldRoot.lineIndex().lineCount();
+			int newEnd = run < runLengths.length ? runNewStarts[run] : newRoot.lineIndex().lineCount();
+			if (oldEnd > oldLine || newEnd > newLine) {
+				changes.add(new Change(oldRoot.startLine + oldLine, oldRoot.startLine + oldEnd,
+						newRoot.startLine + newLine, newRoot.startLine + newEnd, lines(oldRoot, oldLine, oldEnd),
+						lines(newRoot, newLine, newEnd)));
+			}
+			if (run < runLengths.length) {
+				oldLine = oldEnd + runLengths[run];
+				newLine = newEnd + runLengths[run];
+			}
+		}
+		this.changes = Collections.unmodifiableList(changes);
+	}
+
+	/**
+	 * Compares the lines of two versions of a root {@code Segment}.
+	 */
+	public static SegmentDiff of(Segment oldRoot, Segment newRoot) {
+		int oldCount = oldRoot.lineIndex().lineCount();
+		int newCount = newRoot.lineIndex().lineCount();
+		Lines lines = new Lines(oldRoot, newRoot);
+
+		int prefix = 0;
+		while (prefix < oldCount && prefix < newCount && lines.same(prefix, prefix)) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < oldCount - prefix && suffix < newCount - prefix
+				&& lines.same(oldCount - 1 - suffix, newCount - 1 - suffix)) {
+			suffix++;
+		}
+
+		Runs runs = new Runs();
+		runs.add(0, 0, prefix);
+		lines.diff(prefix, oldCount - suffix, prefix, newCount - suffix, runs);
+		runs.add(oldCount - suffix, newCount - suffix, suffix);
+		return new SegmentDiff(oldRoot, newRoot, Arrays.copyOf(runs.oldStarts, runs.count),
+				Arrays.copyOf(runs.newStarts, runs.count), Arrays.copyOf(runs.lengths, runs.count));
+	}
+
+	/**
+	 * @return the changed line ranges, in order.
+	 */
+	public List<Change> changes() {
+		return changes;
+	}
+
+	/**
+	 * @return whether the two versions have the same text.
+	 */
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	/**
+	 * @return the run of unchanged lines containing the given old line
+	 *         (relative to the first line of {@link #oldRoot}), or -1 if it
+	 *         was changed.
+	 */
+	private int runOf(int relativeOldLine) {
+		int run = Arrays.binarySearch(runOldStarts, relativeOldLine);
+		if (run < 0) {
+			run = -run - 2;
+		}
+		return run >= 0 && relativeOldLine < runOldStarts[run] + runLengths[run] ? run : -1;
+	}
+
+	/**
+	 * @return the line in the new version that the given old line is now, or
+	 *         -1 if it was changed.
+	 */
+	public int mapLine(int oldLine) {
+		int run = runOf(oldLine - oldRoot.startLine);
+		return run < 0 ? -1 : oldLine - oldRoot.startLine - runOldStarts[run] + runNewStarts[run] + newRoot.startLine;
+	}
+
+	/**
+	 * @return the index in {@link #newRoot} of the same character as the given
+	 *         index in {@link #oldRoot}, or -1 if its line was changed.
+	 */
+	public int mapIndex(int oldIndex) {
+		LineIndex oldLines = oldRoot.lineIndex();
+		int oldLine = oldLines.relativeLineOf(oldIndex);
+		int run = runOf(oldLine);
+		if (run < 0) {
+			return -1;
+		}
+		int newLine = oldLine - runOldStarts[run] + runNewStarts[run];
+		return newRoot.lineIndex().lineStart(newLine) + oldIndex - oldLines.lineStart(oldLine);
+	}
+
+	/**
+	 * @param segment
+	 *            {@link #oldRoot} or a {@code Segment} of it.
+	 * @return the same text in {@link #newRoot}, or {@code null} if any of the
+	 *         lines it's in were changed.
+	 * @throws IllegalArgumentException
+	 *             if {@code segment} isn't from {@link #oldRoot}.
+	 */
+	public Segment map(Segment segment) {
+		int beginIndex;
+		if (segment == oldRoot) {
+			beginIndex = 0;
+		} else if (segment.sourceSegment == oldRoot) {
+			beginIndex = segment.sourceIndex;
+		} else {
+			throw new IllegalArgumentException("segment is not from the old root segment");
+		}
+		LineIndex oldLines = oldRoot.lineIndex();
+		int run = runOf(oldLines.relativeLineOf(beginIndex));
+		if (run < 0 || !segment.isEmpty()
+				&& runOf(oldLines.relativeLineOf(beginIndex + segment.length() - 1)) != run) {
+			return null;
+		}
+		int newBeginIndex = mapIndex(beginIndex);
+		if (newBeginIndex == 0 && segment.length() == newRoot.length()) {
+			return newRoot;
+		}
+		return newRoot.indexedSubstring(newBeginIndex, newBeginIndex + segment.length());
+	}
+
+	/**
+	 * @return the given lines (relative to the first line) of the given root,
+	 *         including line breaks.
+	 */
+	private static Segment lines(Segment root, int startLine, int endLine) {
+		LineIndex lines = root.lineIndex();
+		int end = endLine < lines.lineCount() ? lines.lineStart(endLine) : root.length();
+		return root.indexedSubstring(lines.lineStart(startLine), end);
+	}
+
+	private static final class Runs {
+		int[] oldStarts = new int[16];
+		int[] newStarts = new int[16];
+		int[] lengths = new int[16];
+		int count;
+
+		/**
+		 * Adds a run of unchanged lines, merging it with the last one if they're
+		 * adjacent.
+		 */
+		void add(int oldStart, int newStart, int length) {
+			if (length == 0) {
+				return;
+			}
+			if (count > 0 && oldStarts[count - 1] + lengths[count - 1] == oldStart
+					&& newStarts[count - 1] + lengths[count - 1] == newStart) {
+				lengths[count - 1] += length;
+				return;
+			}
+			if (count == lengths.length) {
+				oldStarts = Arrays.copyOf(oldStarts, count * 2);
+				newStarts = Arrays.copyOf(newStarts, count * 2);
+				lengths = Arrays.copyOf(lengths, count * 2);
+			}
+			oldStarts[count] = oldStart;
+			newStarts[count] = newStart;
+			lengths[count] = length;
+			count++;
+		}
+	}
+
+	private static final class Lines {
+		final Segment oldRoot;
+		final Segment newRoot;
+		final long[] oldHashes;
+		final long[] newHashes;
+		final LineIndex oldLines;
+		final LineIndex newLines;
+
+		Lines(Segment oldRoot, Segment newRoot) {
+			this.oldRoot = oldRoot;
+			this.newRoot = newRoot;
+			oldHashes = oldRoot.lineHashes();
+			newHashes = newRoot.lineHashes();
+			oldLines = oldRoot.lineIndex();
+			newLines = newRoot.lineIndex();
+		}
+
+		private static int end(Segment root, LineIndex lines, int line) {
+			return line + 1 < lines.lineCount() ? lines.lineStart(line + 1) : root.length();
+		}
+
+		boolean same(int oldLine, int newLine) {
+			if (oldHashes[oldLine] != newHashes[newLine]) {
+				return false;
+			}
+			int oldStart = oldLines.lineStart(oldLine);
+			int newStart = newLines.lineStart(newLine);
+			int length = end(oldRoot, oldLines, oldLine) - oldStart;
+			if (end(newRoot, newLines, newLine) - newStart != length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (oldRoot.charAt(oldStart + i) != newRoot.charAt(newStart + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Finds the runs of unchanged lines between the given ranges of old and
+		 * new lines with Myers' algorithm, saving only the diagonals that each
+		 * step could reach so that the trace takes space proportional to the
+		 * square of the number of changes rather than the number of lines. Adds
+		 * no runs if there are more than {@link #MAX_EDIT_DISTANCE} changes.
+		 */
+		void diff(int oldStart, int oldEnd, int newStart, int newEnd, Runs runs) {
+			int n = oldEnd - oldStart;
+			int m = newEnd - newStart;
+			if (n == 0 || m == 0) {
+				return;
+			}
+			int max = Math.min(n + m, MAX_EDIT_DISTANCE);
+			int offset = max + 1;
+			int[] v = new int[2 * max + 3];
+			List<int[]> trace = new ArrayList<>();
+			boolean found = false;
+			search: for (int d = 0; d <= max; d++) {
+				trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+				for (int k = -d; k <= d; k += 2) {
+					int x = k == -d || k != d && v[offset + k - 1] < v[offset + k + 1] ? v[offset + k + 1]
+							: v[offset + k - 1] + 1;
+					int y = x - k;
+					while (x < n && y < m && same(oldStart + x, newStart + y)) {
+						x++;
+						y++;
+					}
+					v[offset + k] = x;
+					if (x >= n && y >= m) {
+						found = true;
+						break search;
+					}
+				}
+			}
+			if (!found) {
+				return;
+			}
+
+			// backtrack from the end, collecting the diagonals (in reverse)
+			int snakes = 0;
+			int[] snakeOld = new int[16];
+			int[] snakeNew = new int[16];
+			int[] snakeLength = new int[16];
+			int x = n;
+			int y = m;
+			for (int d = trace.size() - 1; d >= 0; d--) {
+				int[] prev = trace.get(d);
+				// prev[i] is v[i - d - 1]
+				int k = x - y;
+				int prevK = k == -d || k != d && prev[k - 1 + d + 1] < prev[k + 1 + d + 1] ? k + 1 : k - 1;
+				int prevX = d == 0 ? 0 : prev[prevK + d + 1];
+				int prevY = d == 0 ? 0 : prevX - prevK;
+				// the snake starts after the step from the previous diagonal
+				int length = x - (d > 0 && prevK < k ? prevX + 1 : prevX);
+				if (length > 0) {
+					if (snakes == snakeLength.length) {
+						snakeOld = Arrays.copyOf(snakeOld, snakes * 2);
+						snakeNew = Arrays.copyOf(snakeNew, snakes * 2);
+						snakeLength = Arrays.copyOf(snakeLength, snakes * 2);
+					}
+					snakeOld[snakes] = x - length;
+					snakeNew[snakes] = y - length;
+					snakeLength[snakes] = length;
+					snakes++;
+				}
+				x = prevX;
+				y = prevY;
+			}
+			for (int i = snakes - 1; i >= 0; i--) {
+				runs.add(oldStart + snakeOld[i], newStart + snakeNew[i], snakeLength[i]);
+			}
+		}
+	}
+}
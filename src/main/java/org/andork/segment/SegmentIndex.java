@@ -0,0 +1,242 @@
+package org.andork.segment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An immutable index of {@link Segment}s from the same root, for finding the
+ * ones at a given position (e.g. for hover, go-to-definition or error
+ * attribution) in logarithmic time instead of scanning them all.
+ * <p>
+ * Positions are indices in the root (see {@link #root}), or lines and columns
+ * looked up in its line index. Segments are sorted by start, then by end in
+ * reverse (so outer ones come first), and a tree of the maximum end in each
+ * range of them prunes the search.
+ * <p>
+ * Empty segments don't contain any index, so they're only found by
+ * {@link #nearestPreceding(int)}.
+ */
+public final class SegmentIndex {
+	/**
+	 * The {@link Segment#sourceSegment} of all the segments (or the segment
+	 * that is itself a root), or {@code null} if there are no segments.
+	 */
+	public final Segment root;
+
+	private final Segment[] segments;
+	private final int[] starts;
+	/**
+	 * A complete binary tree of the maximum end in each range of
+	 * {@link #segments}: the leaves start at index {@link #leafCount}, and
+	 * node {@code i} has children {@code 2i} and {@code 2i + 1}.
+	 */
+	private final int[] maxEnds;
+	private final int leafCount;
+
+	/**
+	 * The segments sorted by end, then by start.
+	 */
+	private final Segment[] byEnd;
+	private final int[] sortedEnds;
+
+	private SegmentIndex(Segment root, Segment[] segments) {
+		this.root = root;
+		this.segments = segments;
+		Arrays.sort(segments, (a, b) -> start(a) != start(b) ? Integer.compare(start(a), start(b))
+				: Integer.compare(b.length(), a.length()));
+		starts = new int[segments.length];
+		int[] ends = new int[segments.length];
+		for (int i = 0; i < segments.length; i++) {
+			starts[i] = start(segments[i]);
+			ends[i] = starts[i] + segments[i].length();
+		}
+
+		int leafCount = 1;
+		while (leafCount < segments.length) {
+			leafCount *= 2;
+		}
+		this.leafCount = leafCount;
+		maxEnds = new int[leafCount * 2];
+		Arrays.fill(maxEnds, Integer.MIN_VALUE);
+		System.arraycopy(ends, 0, maxEnds, leafCount, ends.length);
+		for (int i = leafCount - 1; i > 0; i--) {
+			maxEnds[i] = Math.max(maxEnds[2 * i], maxEnds[2 * i + 1]);
+		}
+
+		byEnd = segments.clone();
+		Arrays.sort(byEnd, (a, b) -> {
+			int aEnd = start(a) + a.length();
+			int bEnd = start(b) + b.length();
+			return aEnd != bEnd ? Integer.compare(aEnd, bEnd) : Integer.compare(start(a), start(b));
+		});
+		sortedEnds = new int[byEnd.length];
+		for (int i = 0; i < byEnd.length; i++) {
+			sortedEnds[i] = start(byEnd[i]) + byEnd[i].length();
+		}
+	}
+
+	private int start(Segment segment) {
+		return segment == root ? 0 : segment.sourceIndex;
+	}
+
+	/**
+	 * Indexes the given segments, which must all be substrings of the same
+	 * root (or that root itself).
+	 *
+	 * @throws IllegalArgumentException
+	 *             if they're from different roots.
+	 */
+	public static SegmentIndex of(Collection<? extends Segment> segments) {
+		Segment[] array = segments.toArray(new Segment[segments.size()]);
+		Segment root = null;
+		for (Segment segment : array) {
+			Segment segmentRoot = segment.sourceSegment != null ? segment.sourceSegment : segment;
+			if (root == null) {
+				root = segmentRoot;
+			} else if (segmentRoot != root) {
+				throw new IllegalArgumentException("segments are from different root segments");
+			}
+		}
+		return new SegmentIndex(root, array);
+	}
+
+	public int size() {
+		return segments.length;
+	}
+
+	/**
+	 * @return the index in {@link #segments} of the last segment before
+	 *         {@code limit} that ends after {@code index}, or -1 if there is
+	 *         none.
+	 */
+	private int lastEndingAfter(int node, int lo, int hi, int limit, int index) {
+		if (lo >= limit || maxEnds[node] <= index) {
+			return -1;
+		}
+		if (node >= leafCount) {
+			return lo;
+		}
+		int mid = (lo + hi) >>> 1;
+		int result = lastEndingAfter(2 * node + 1, mid, hi, limit, index);
+		return result >= 0 ? result : lastEndingAfter(2 * node, lo, mid, limit, index);
+	}
+
+	/**
+	 * Adds the segments before {@code limit} that end after {@code index} to
+	 * {@code result}, in order.
+	 */
+	private void collectEndingAfter(int node, int lo, int hi, int limit, int index, List<Segment> result) {
+		if (lo >= limit || maxEnds[node] <= index) {
+			return;
+		}
+		if (node >= leafCount) {
+			result.add(segments[lo]);
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		collectEndingAfter(2 * node, lo, mid, limit, index, result);
+		collectEndingAfter(2 * node + 1, mid, hi, limit, index, result);
+	}
+
+	/**
+	 * @return the number of segments that start at or before {@code index}.
+	 */
+	private int countStartingAtOrBefore(int index) {
+		int lo = 0;
+		int hi = starts.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] <= index) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the innermost segment containing the given index (the one that
+	 *         starts last, and of those the shortest), or {@code null} if none
+	 *         do.
+	 */
+	public Segment innermost(int index) {
+		int i = lastEndingAfter(1, 0, leafCount, countStartingAtOrBefore(index), index);
+		return i < 0 ? null : segments[i];
+	}
+
+	/**
+	 * @return the innermost segment containing the given line and column of
+	 *         {@link #root}, or {@code null} if none do.
+	 */
+	public Segment innermost(int line, int col) {
+		return root == null ? null : innermost(root.lineIndex().index(line, col));
+	}
+
+	/**
+	 * @return the segments containing the given index, outermost first.
+	 */
+	public List<Segment> covering(int index) {
+		List<Segment> result = new ArrayList<>();
+		collectEndingAfter(1, 0, leafCount, countStartingAtOrBefore(index), index, result);
+		return result;
+	}
+
+	/**
+	 * @return the segments containing the given line and column of
+	 *         {@link #root}, outermost first.
+	 */
+	public List<Segment> covering(int line, int col) {
+		return root == null ? new ArrayList<>() : covering(root.lineIndex().index(line, col));
+	}
+
+	/**
+	 * @return the segments that overlap the given range of indices, in order
+	 *         of their start (or {@link #covering(int)} if the range is empty).
+	 */
+	public List<Segment> overlapping(int beginIndex, int endIndex) {
+		if (beginIndex >= endIndex) {
+			return covering(beginIndex);
+		}
+		List<Segment> result = new ArrayList<>();
+		collectEndingAfter(1, 0, leafCount, countStartingAtOrBefore(endIndex - 1), beginIndex, result);
+		return result;
+	}
+
+	/**
+	 * @param range
+	 *            {@link #root} or a {@code Segment} of it.
+	 * @return the segments that overlap it, in order of their start.
+	 */
+	public List<Segment> overlapping(Segment range) {
+		if (root == null) {
+			return new ArrayList<>();
+		}
+		if (range != root && range.sourceSegment != root) {
+			throw new IllegalArgumentException("segment is not from the root segment");
+		}
+		int beginIndex = start(range);
+		return overlapping(beginIndex, beginIndex + range.length());
+	}
+
+	/**
+	 * @return the segment that ends closest before (or at) the given index,
+	 *         and of those the one that starts last, or {@code null} if none
+	 *         do.
+	 */
+	public Segment nearestPreceding(int index) {
+		int lo = 0;
+		int hi = sortedEnds.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sortedEnds[mid] <= index) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo == 0 ? null : byEnd[lo - 1];
+	}
+}
@@ -1,7 +1,17 @@
 package org.andork.segment;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Just like {@link Matcher}, but operates on {@link Segment}s instead of
@@ -10,10 +20,33 @@ import java.util.regex.Pattern;
 public class SegmentMatcher {
 	private final Segment segment;
 	private final Matcher matcher;
+	/**
+	 * The last group returned, used as a starting point for computing the
+	 * line and column of the next one (as long as it doesn't start before
+	 * it).
+	 */
+	private Segment anchor;
+	private Map<String, Integer> groupNames;
 
 	public SegmentMatcher(Segment segment, Pattern pattern) {
 		this.segment = segment;
-		matcher = pattern.matcher(segment.toString());
+		matcher = pattern.matcher(segment.text());
+	}
+
+	/**
+	 * Creates a {@code Segment} for the given region of {@link #segment}, using
+	 * {@link #anchor} to avoid rescanning line breaks from the beginning.
+	 */
+	private Segment position(int start, int end) {
+		Segment result;
+		if (segment.startLine == segment.endLine || anchor == null
+				|| anchor.sourceIndex - Math.max(segment.sourceIndex, 0) > start) {
+			result = segment.substring(start, end);
+		} else {
+			result = segment.substring(anchor, start, end);
+		}
+		anchor = result;
+		return result;
 	}
 
 	public int end() {
@@ -36,8 +69,21 @@ public class SegmentMatcher {
 		return matcher.find(start);
 	}
 
+	/**
+	 * Resets this matcher and returns the {@linkplain #group() match} for each
+	 * subsequent {@link #find()}.
+	 */
+	public List<Segment> findAll() {
+		reset();
+		List<Segment> result = new ArrayList<>();
+		while (matcher.find()) {
+			result.add(group());
+		}
+		return result;
+	}
+
 	public Segment group() {
-		return segment.substring(matcher.start(), matcher.end());
+		return position(matcher.start(), matcher.end());
 	}
 
 	public Segment group(int group) {
@@ -48,13 +94,139 @@ public class SegmentMatcher {
 			return null;
 		}
 
-		return segment.substring(start, end);
+		return position(start, end);
+	}
+
+	public Segment group(String name) {
+		int start = matcher.start(name);
+		int end = matcher.end(name);
+
+		if (start < 0 || end < 0) {
+			return null;
+		}
+
+		return position(start, end);
 	}
 
 	public int groupCount() {
 		return matcher.groupCount();
 	}
 
+	/**
+	 * Gets all groups of the last match at once. This is much faster than
+	 * calling {@link #group(int)} for each group of a multi-line match,
+	 * because the groups are located in order of their start index in a
+	 * single pass, instead of rescanning the line breaks from the beginning
+	 * whenever a group starts before the previous one.
+	 *
+	 * @return an array of length {@code groupCount() + 1}, where element
+	 *         {@code i} is {@code group(i)} (and {@code null} if that group
+	 *         didn't participate in the match).
+	 */
+	public Segment[] groups() {
+		int count = matcher.groupCount() + 1;
+		int[] order = new int[count];
+		int ordered = 0;
+		for (int group = 0; group < count; group++) {
+			int start = matcher.start(group);
+			if (start < 0) {
+				continue;
+			}
+			// insertion sort by start index; the group count is usually
+			// small and the groups are usually almost in order already
+			int k = ordered++;
+			while (k > 0 && matcher.start(order[k - 1]) > start) {
+				order[k] = order[k - 1];
+				k--;
+			}
+			order[k] = group;
+		}
+		Segment[] result = new Segment[count];
+		for (int i = 0; i < ordered; i++) {
+			int group = order[i];
+			result[group] = position(matcher.start(group), matcher.end(group));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets all named groups of the last match at once, in a single pass like
+	 * {@link #groups()}.
+	 *
+	 * @return a map from each group name in the pattern (in order of
+	 *         appearance) to {@code group(name)}.
+	 */
+	public Map<String, Segment> namedGroups() {
+		Map<String, Integer> names = groupNames();
+		if (names.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Segment[] groups = groups();
+		Map<String, Segment> result = new LinkedHashMap<>();
+		for (Map.Entry<String, Integer> entry : names.entrySet()) {
+			int group = entry.getValue();
+			result.put(entry.getKey(), group >= 0 ? groups[group] : group(entry.getKey()));
+		}
+		return result;
+	}
+
+	private Map<String, Integer> groupNames() {
+		if (groupNames == null) {
+			groupNames = parseGroupNames(matcher.pattern());
+		}
+		return groupNames;
+	}
+
+	/**
+	 * {@link Pattern} doesn't expose its named groups (before Java 20), so
+	 * this scans the pattern source for them, counting capturing groups along
+	 * the way to determine their numbers. If the count doesn't agree with
+	 * {@link Matcher#groupCount()} the names are mapped to -1 instead.
+	 */
+	static Map<String, Integer> parseGroupNames(Pattern pattern) {
+		if ((pattern.flags() & Pattern.LITERAL) != 0) {
+			return Collections.emptyMap();
+		}
+		boolean comments = (pattern.flags() & Pattern.COMMENTS) != 0;
+		String regex = pattern.pattern();
+		Map<String, Integer> result = new LinkedHashMap<>();
+		int group = 0;
+		int classDepth = 0;
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+					int end = regex.indexOf("\\E", i + 2);
+					i = end < 0 ? regex.length() : end + 1;
+				} else {
+					i++;
+				}
+			} else if (c == '[') {
+				classDepth++;
+			} else if (c == ']' && classDepth > 0) {
+				classDepth--;
+			} else if (classDepth > 0) {
+				continue;
+			} else if (c == '#' && comments) {
+				while (i + 1 < regex.length() && regex.charAt(i + 1) != '\n') {
+					i++;
+				}
+			} else if (c == '(') {
+				if (i + 1 >= regex.length() || regex.charAt(i + 1) != '?') {
+					group++;
+				} else if (i + 3 < regex.length() && regex.charAt(i + 2) == '<'
+						&& Character.isLetter(regex.charAt(i + 3))) {
+					int end = regex.indexOf('>', i + 3);
+					result.put(regex.substring(i + 3, end), ++group);
+				}
+			}
+		}
+		if (group != pattern.matcher("").groupCount()) {
+			result.replaceAll((name, number) -> -1);
+		}
+		return result;
+	}
+
 	public boolean hasAnchoringBounds() {
 		return matcher.hasAnchoringBounds();
 	}
@@ -98,9 +270,28 @@ public class SegmentMatcher {
 
 	public SegmentMatcher reset() {
 		matcher.reset();
+		anchor = null;
 		return this;
 	}
 
+	/**
+	 * Like {@code Matcher.results()} in Java 9+: lazily performs each
+	 * subsequent {@link #find()} and returns its {@link #groups()}.
+	 */
+	public Stream<Segment[]> results() {
+		return StreamSupport.stream(new Spliterators.AbstractSpliterator<Segment[]>(Long.MAX_VALUE,
+				Spliterator.ORDERED | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(Consumer<? super Segment[]> action) {
+				if (!matcher.find()) {
+					return false;
+				}
+				action.accept(groups());
+				return true;
+			}
+		}, false);
+	}
+
 	public Segment segment() {
 		return segment;
 	}
@@ -113,6 +304,10 @@ public class SegmentMatcher {
 		return matcher.start(group);
 	}
 
+	public int start(String name) {
+		return matcher.start(name);
+	}
+
 	public SegmentMatcher useAnchoringBounds(boolean b) {
 		matcher.useAnchoringBounds(b);
 		return this;
@@ -120,6 +315,7 @@ public class SegmentMatcher {
 
 	public SegmentMatcher usePattern(Pattern newPattern) {
 		matcher.usePattern(newPattern);
+		groupNames = null;
 		return this;
 	}
 
@@ -1,6 +1,9 @@
 package org.andork.segment;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 
@@ -12,10 +15,71 @@ public class SegmentParser {
 		return p -> (p.atEnd() ? "missing " : "invalid ") + what;
 	}
 
+	/**
+	 * A {@linkplain #recoverErrors(Pattern, int) sync point} after the next
+	 * line break (or at the end).
+	 */
+	public static final Pattern SYNC_END_OF_LINE = Pattern.compile("\r\n|\r|\n");
+
+	/**
+	 * Part of a parse that can fail and be recovered from with
+	 * {@link SegmentParser#attempt(Step)}.
+	 */
+	@FunctionalInterface
+	public interface Step {
+		void parse(SegmentParser parser) throws SegmentParseException;
+	}
+
+	/**
+	 * The result of {@link SegmentParser#matchAny(PatternAlternatives)}.
+	 */
+	public static final class Match {
+		/**
+		 * The index of the pattern that matched.
+		 */
+		public final int alternative;
+		/**
+		 * The text it matched.
+		 */
+		public final Segment segment;
+		private final SegmentMatcher matcher;
+		private final int groupOffset;
+		private final int groupCount;
+
+		Match(int alternative, Segment segment, SegmentMatcher matcher, int groupOffset, int groupCount) {
+			this.alternative = alternative;
+			this.segment = segment;
+			this.matcher = matcher;
+			this.groupOffset = groupOffset;
+			this.groupCount = groupCount;
+		}
+
+		/**
+		 * @return the given group of the pattern that matched, or {@code null}
+		 *         if it didn't participate in the match.
+		 * @throws IndexOutOfBoundsException
+		 *             if that pattern has no such group.
+		 */
+		public Segment group(int group) {
+			if (group < 0 || group > groupCount) {
+				throw new IndexOutOfBoundsException("No group " + group);
+			}
+			return group == 0 ? segment : matcher.group(groupOffset + group);
+		}
+
+		public Segment group(String name) {
+			return matcher.group(name);
+		}
+	}
+
 	private final Segment segment;
 
 	public int index = 0;
 
+	private List<SegmentParseException> errors;
+	private Pattern syncPoint;
+	private int maxErrors;
+
 	public SegmentParser(Segment segment) {
 		this.segment = segment;
 	}
@@ -31,6 +95,55 @@ public class SegmentParser {
 		return index >= segment.length();
 	}
 
+	/**
+	 * Runs the given step. If it throws a {@link SegmentParseException} and
+	 * {@linkplain #recoverErrors(Pattern, int) error recovery} is enabled, the
+	 * error is recorded in {@link #getErrors()} and the index is moved past
+	 * the next sync point, so that parsing can continue.
+	 *
+	 * @return {@code true} if the step succeeded, {@code false} if it failed
+	 *         and was recovered from.
+	 * @throws SegmentParseException
+	 *             if the step failed and error recovery is disabled.
+	 */
+	public boolean attempt(Step step) throws SegmentParseException {
+		int start = index;
+		try {
+			step.parse(this);
+			return true;
+		} catch (SegmentParseException ex) {
+			recover(ex, start);
+			return false;
+		}
+	}
+
+	/**
+	 * Records the given error and moves past the next sync point, or throws it
+	 * if error recovery is disabled.
+	 *
+	 * @param start
+	 *            the index where the failed step started.
+	 */
+	private void recover(SegmentParseException ex, int start) throws SegmentParseException {
+		if (errors == null) {
+			throw ex;
+		}
+		errors.add(ex);
+		if (errors.size() >= maxErrors) {
+			// give up on the rest
+			index = segment.length();
+			return;
+		}
+		index = Math.min(Math.max(index, start), segment.length());
+		SegmentMatcher m = new SegmentMatcher(segment, syncPoint);
+		m.region(index, segment.length());
+		index = m.find() ? m.end() : segment.length();
+		if (index == start) {
+			// make sure we don't get stuck (or go past the end)
+			index = Math.min(start + 1, segment.length());
+		}
+	}
+
 	public BigDecimal bigDecimal() throws SegmentParseException {
 		return bigDecimal("invalid number");
 	}
@@ -49,7 +162,11 @@ public class SegmentParser {
 	}
 
 	public SegmentParser character(char c) throws SegmentParseException {
-		return character(c, "expected '" + c + "'");
+		if (index >= segment.length() || segment.charAt(index) != c) {
+			throw new SegmentParseException("expected '" + c + "'", segment.charAtAsSegment(index));
+		}
+		index++;
+		return this;
 	}
 
 	public SegmentParser character(char c, Function<SegmentParser, String> errorMessage) throws SegmentParseException {
@@ -62,7 +179,11 @@ public class SegmentParser {
 	}
 
 	public SegmentParser character(char c, String errorMessage) throws SegmentParseException {
-		return character(c, p -> errorMessage);
+		if (index >= segment.length() || segment.charAt(index) != c) {
+			throw new SegmentParseException(errorMessage, segment.charAtAsSegment(index));
+		}
+		index++;
+		return this;
 	}
 
 	public char character(Function<SegmentParser, String> errorMessage) throws SegmentParseException {
@@ -74,25 +195,59 @@ public class SegmentParser {
 	}
 
 	public char character(String errorMessage) throws SegmentParseException {
-		return character(p -> errorMessage);
+		if (index >= segment.length()) {
+			throw new SegmentParseException(errorMessage, segment.charAtAsSegment(index));
+		}
+		return segment.charAt(index++);
 	}
 
 	public char charAtIndex() {
 		return segment.charAt(index);
 	}
 
+	/**
+	 * Splits the rest of the current line into the given {@link Fields} in a
+	 * single scan, then moves past the line break.
+	 *
+	 * @return {@code fields}
+	 * @throws SegmentParseException
+	 *             if a quoted field is malformed (in which case the index
+	 *             doesn't move).
+	 */
+	public Fields fields(Fields fields) throws SegmentParseException {
+		int lineEnd = fields.scan(segment, index);
+		index = lineEnd < segment.length() ? LineBreaks.end(segment.text(), lineEnd, segment.length()) : lineEnd;
+		return fields;
+	}
+
 	public int getIndex() {
 		return index;
 	}
 
+	/**
+	 * @return the errors recorded by {@link #attempt(Step)}, in the order they
+	 *         occurred (empty if error recovery is disabled).
+	 */
+	public List<SegmentParseException> getErrors() {
+		return errors != null ? Collections.unmodifiableList(errors) : Collections.emptyList();
+	}
+
 	public Segment getSegment() {
 		return segment;
 	}
 
+	/**
+	 * @return whether {@link #attempt(Step)} stopped parsing because the
+	 *         maximum number of errors was reached.
+	 */
+	public boolean hasTooManyErrors() {
+		return errors != null && errors.size() >= maxErrors;
+	}
+
 	public Segment match(Pattern p, Function<SegmentParser, String> errorMessage) throws SegmentParseException {
 		SegmentMatcher m = new SegmentMatcher(segment, p);
 		m.region(index, segment.length());
-		if (!m.find() || m.start() > index) {
+		if (!m.lookingAt()) {
 			throw new SegmentParseException(errorMessage.apply(this), segment.charAtAsSegment(index));
 		}
 		index = m.end();
@@ -111,6 +266,28 @@ public class SegmentParser {
 		return match(Pattern.compile(pattern), errorMessage);
 	}
 
+	/**
+	 * Matches the first of the given patterns that matches at the current
+	 * index, in a single pass if they could be
+	 * {@linkplain PatternAlternatives#isCombined() combined}.
+	 */
+	public Match matchAny(PatternAlternatives alternatives, Function<SegmentParser, String> errorMessage)
+			throws SegmentParseException {
+		Match result = tryMatchAny(alternatives);
+		if (result == null) {
+			throw new SegmentParseException(errorMessage.apply(this), segment.charAtAsSegment(index));
+		}
+		return result;
+	}
+
+	public Match matchAny(PatternAlternatives alternatives, String errorMessage) throws SegmentParseException {
+		return matchAny(alternatives, p -> errorMessage);
+	}
+
+	public Match matchAny(PatternAlternatives alternatives) throws SegmentParseException {
+		return matchAny(alternatives, "no alternative matched");
+	}
+
 	public SegmentParser move(int amount) {
 		index += amount;
 		return this;
@@ -121,6 +298,29 @@ public class SegmentParser {
 		return this;
 	}
 
+	/**
+	 * Parses the entire segment by repeatedly {@linkplain #attempt(Step)
+	 * attempting} the given step until the end. With
+	 * {@linkplain #recoverErrors(Pattern, int) error recovery} enabled, this
+	 * checks everything in one pass.
+	 * <p>
+	 * A step that succeeds without consuming any input would be repeated
+	 * forever, so it's treated as failing with an "unexpected input" error.
+	 *
+	 * @return the errors that were recovered from.
+	 * @throws SegmentParseException
+	 *             if a step fails and error recovery is disabled.
+	 */
+	public List<SegmentParseException> parseAll(Step step) throws SegmentParseException {
+		while (!atEnd()) {
+			int start = index;
+			if (attempt(step) && index == start) {
+				recover(new SegmentParseException("unexpected input", segment.charAtAsSegment(start)), start);
+			}
+		}
+		return getErrors();
+	}
+
 	public Segment nonwhitespace() throws SegmentParseException {
 		return nonwhitespace("expected non-whitespace");
 	}
@@ -133,6 +333,29 @@ public class SegmentParser {
 		return nonwhitespace(p -> errorMessage);
 	}
 
+	/**
+	 * Enables error recovery in {@link #attempt(Step)}.
+	 *
+	 * @param syncPoint
+	 *            the pattern to skip past after an error, for instance
+	 *            {@link #SYNC_END_OF_LINE}, a delimiter, or a keyword. If it
+	 *            isn't found, parsing skips to the end.
+	 * @param maxErrors
+	 *            the number of errors after which to stop parsing, to bound
+	 *            memory usage.
+	 */
+	public SegmentParser recoverErrors(Pattern syncPoint, int maxErrors) {
+		if (maxErrors < 1) {
+			throw new IllegalArgumentException("maxErrors must be positive");
+		}
+		this.syncPoint = syncPoint;
+		this.maxErrors = maxErrors;
+		if (errors == null) {
+			errors = new ArrayList<>();
+		}
+		return this;
+	}
+
 	public Segment rest() {
 		Segment result = segment.substring(index);
 		index = segment.length();
@@ -143,6 +366,37 @@ public class SegmentParser {
 		throw new SegmentParseException(message, segment.charAtAsSegment(index));
 	}
 
+	/**
+	 * Like {@link #matchAny(PatternAlternatives)}, but returns {@code null}
+	 * instead of throwing if none of the patterns match, which is much
+	 * cheaper when failure is expected.
+	 */
+	public Match tryMatchAny(PatternAlternatives alternatives) {
+		if (alternatives.combined != null) {
+			SegmentMatcher m = new SegmentMatcher(segment, alternatives.combined);
+			m.region(index, segment.length());
+			if (!m.lookingAt()) {
+				return null;
+			}
+			int alternative = 0;
+			while (m.start(alternatives.groupOffsets[alternative]) < 0) {
+				alternative++;
+			}
+			index = m.end();
+			return new Match(alternative, m.group(), m, alternatives.groupOffsets[alternative],
+					alternatives.groupCounts[alternative]);
+		}
+		for (int alternative = 0; alternative < alternatives.patterns.length; alternative++) {
+			SegmentMatcher m = new SegmentMatcher(segment, alternatives.patterns[alternative]);
+			m.region(index, segment.length());
+			if (m.lookingAt()) {
+				index = m.end();
+				return new Match(alternative, m.group(), m, 0, alternatives.groupCounts[alternative]);
+			}
+		}
+		return null;
+	}
+
 	public SegmentParser whitespace() throws SegmentParseException {
 		return whitespace("expected whitespace");
 	}
@@ -0,0 +1,140 @@
+package org.andork.segment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the text of sources for {@link CompactSegment}s by soft reference, so
+ * that it can be garbage collected when memory is needed and reloaded on
+ * demand (for instance, when an error needs to be shown in context).
+ */
+public class SourceRegistry {
+	/**
+	 * Loads the entire text of a source.
+	 */
+	@FunctionalInterface
+	public interface Loader {
+		Segment load(Object source) throws IOException;
+	}
+
+	private static class SourceReference extends SoftReference<Segment> {
+		final Object source;
+
+		SourceReference(Object source, Segment root, ReferenceQueue<Segment> queue) {
+			super(root, queue);
+			this.source = source;
+		}
+	}
+
+	private final Loader loader;
+	private final ConcurrentHashMap<Object, SourceReference> sources = new ConcurrentHashMap<>();
+	private final ReferenceQueue<Segment> queue = new ReferenceQueue<>();
+
+	public SourceRegistry(Loader loader) {
+		this.loader = loader;
+	}
+
+	/**
+	 * @return a {@code SourceRegistry} that reloads {@link Path} sources with
+	 *         {@link Segment#readFile(Path, Charset)}.
+	 */
+	public static SourceRegistry forFiles(Charset encoding) {
+		return new SourceRegistry(source -> {
+			if (!(source instanceof Path)) {
+				throw new IOException("don't know how to load source: " + source);
+			}
+			return Segment.readFile((Path) source, encoding);
+		});
+	}
+
+	/**
+	 * Removes all sources, so that they will be reloaded when needed.
+	 */
+	public void clear() {
+		sources.clear();
+	}
+
+	/**
+	 * Creates a {@link CompactSegment} for the given segment, registering its
+	 * {@link Segment#sourceSegment} (or itself, if it has none) as the text
+	 * of its {@link Segment#source}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the segment has no source, or isn't the entire text of a
+	 *             source (starting at line 0, column 0) or a substring of one,
+	 *             like the results of {@link Segment#isolate()} and
+	 *             {@link Segment#concat(Segment...)}.
+	 * @throws IllegalStateException
+	 *             if different text is already registered for the source.
+	 */
+	public CompactSegment compact(Segment segment) {
+		if (segment.source == null) {
+			throw new IllegalArgumentException("segment has no source");
+		}
+		Segment root = segment.sourceSegment != null ? segment.sourceSegment : segment;
+		if (root.startLine != 0 || root.startCol != 0 || root.text() instanceof Rope) {
+			throw new IllegalArgumentException("segment is not from the entire text of its source");
+		}
+		// check and register atomically, so that concurrent calls with
+		// different text for the same source can't both succeed
+		sources.compute(root.source, (source, ref) -> {
+			Segment registered = ref != null ? ref.get() : null;
+			if (registered == root) {
+				return ref;
+			}
+			if (registered != null && !registered.contentEquals(root)) {
+				throw new IllegalStateException("different text is already registered for source: " + source);
+			}
+			// replacing identical text keeps the next lookup an identity check
+			return new SourceReference(source, root, queue);
+		});
+		removeCleared();
+		return new CompactSegment(this, segment.source,
+				segment.sourceSegment != null ? segment.sourceIndex : 0, segment.length(),
+				segment.startLine, segment.startCol, segment.endLine, segment.endCol);
+	}
+
+	/**
+	 * @return the text of the given source, reloading it if it has been
+	 *         garbage collected.
+	 * @throws UncheckedIOException
+	 *             if it fails to reload.
+	 */
+	public Segment get(Object source) {
+		SourceReference ref = sources.get(source);
+		Segment root = ref != null ? ref.get() : null;
+		if (root == null) {
+			Segment loaded;
+			try {
+				loaded = loader.load(source);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			// keep the text if another thread registered it in the meantime
+			ref = sources.compute(source,
+					(key, existing) -> existing != null && existing.get() != null ? existing
+							: new SourceReference(key, loaded, queue));
+			root = ref.get();
+			if (root == null) {
+				root = loaded;
+			}
+			removeCleared();
+		}
+		return root;
+	}
+
+	/**
+	 * Removes entries whose text has been garbage collected.
+	 */
+	private void removeCleared() {
+		SourceReference cleared;
+		while ((cleared = (SourceReference) queue.poll()) != null) {
+			sources.remove(cleared.source, cleared);
+		}
+	}
+}
@@ -0,0 +1,386 @@
+package org.andork.segment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Like {@link SegmentParser}, but parses text as it's read from a
+ * {@link Reader} instead of requiring all of it up front, so that it can parse
+ * input that never ends or doesn't fit in memory.
+ * <p>
+ * Text is read into a buffer as needed, and stays there until
+ * {@link #commit()} discards everything before the current index, so call it
+ * after each record or so. Line and column numbers keep counting from the
+ * beginning of the input.
+ * <p>
+ * The {@link Segment}s returned by successful matches are standalone (they
+ * have no {@link Segment#sourceSegment}). The {@code Segment}s of
+ * {@link SegmentParseException}s are substrings of the uncommitted text (read
+ * through the end of the line, if that's possible without blocking), so
+ * {@link Segment#underlineInContext()} shows the lines since the last
+ * {@link #commit()}.
+ * <p>
+ * {@link IOException}s from the {@code Reader} are rethrown as
+ * {@link UncheckedIOException}s.
+ */
+public class StreamingSegmentParser {
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final Pattern NONWHITESPACE = Pattern.compile("\\S+");
+	private static final Pattern BIG_DECIMAL_STRING = Pattern.compile("[-+]?(\\d+(\\.\\d*)?|\\.\\d+)([eE][+-]?\\d+)?");
+	private static final int MIN_READ_SIZE = 8192;
+
+	private final Reader reader;
+	private final Object source;
+	private final StringBuilder buffer = new StringBuilder();
+	private char[] readBuffer = new char[MIN_READ_SIZE];
+	private boolean eof;
+
+	/**
+	 * The number of characters discarded by {@link #commit()}.
+	 */
+	private long committed;
+	private int bufferStartLine;
+	private int bufferStartCol;
+
+	/**
+	 * The last index whose line and column have been computed.
+	 */
+	private int cursorIndex;
+	private int cursorLine;
+	private int cursorCol;
+
+	private int index;
+
+	public StreamingSegmentParser(Reader reader, Object source, int startLine, int startCol) {
+		this.reader = reader;
+		this.source = source;
+		this.bufferStartLine = cursorLine = startLine;
+		this.bufferStartCol = cursorCol = startCol;
+	}
+
+	public StreamingSegmentParser(Reader reader, Object source) {
+		this(reader, source, 0, 0);
+	}
+
+	public StreamingSegmentParser(InputStream in, Charset encoding, Object source) {
+		this(new InputStreamReader(in, encoding), source);
+	}
+
+	public StreamingSegmentParser(ReadableByteChannel channel, Charset encoding, Object source) {
+		this(Channels.newReader(channel, encoding.newDecoder(), -1), source);
+	}
+
+	/**
+	 * Reads until there are at least {@code count} characters after
+	 * {@link #index} in the buffer, or the end of input.
+	 *
+	 * @return whether there are at least {@code count} characters.
+	 */
+	private boolean fill(int count) {
+		while (buffer.length() - index < count) {
+			if (!read()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads one chunk of input into the buffer; the chunk size grows with the
+	 * buffer so that rematching long tokens doesn't take quadratic time.
+	 *
+	 * @return {@code false} if the end of input has been reached.
+	 */
+	private boolean read() {
+		if (eof) {
+			return false;
+		}
+		int size = Math.max(MIN_READ_SIZE, buffer.length() - index);
+		if (readBuffer.length < size) {
+			readBuffer = new char[size];
+		}
+		try {
+			int n;
+			do {
+				n = reader.read(readBuffer, 0, size);
+			} while (n == 0);
+			if (n < 0) {
+				eof = true;
+				return false;
+			}
+			buffer.append(readBuffer, 0, n);
+			return true;
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * @return whether the reader can be read without blocking.
+	 */
+	private boolean ready() {
+		try {
+			return !eof && reader.ready();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Moves the cursor forward to the given index, counting lines and columns.
+	 */
+	private void advanceCursor(int to) {
+		if (to < cursorIndex) {
+			cursorIndex = 0;
+			cursorLine = bufferStartLine;
+			cursorCol = bufferStartCol;
+		}
+		if (to > 0 && buffer.charAt(to - 1) == '\r' && to == buffer.length()) {
+			// need to know if a \n follows to tell where the line breaks
+			read();
+		}
+		while (cursorIndex < to) {
+			char c = buffer.charAt(cursorIndex++);
+			if (c == '\n' || c == '\r' && (cursorIndex == buffer.length() || buffer.charAt(cursorIndex) != '\n')) {
+				cursorLine++;
+				cursorCol = 0;
+			} else {
+				cursorCol++;
+			}
+		}
+	}
+
+	/**
+	 * Creates a standalone {@code Segment} for the given region of the buffer.
+	 */
+	private Segment segment(int start, int end) {
+		advanceCursor(start);
+		return new Segment(buffer.substring(start, end), source, cursorLine, cursorCol);
+	}
+
+	/**
+	 * Creates a {@code Segment} for the character at the given index (or the
+	 * end of input) with the uncommitted text as context.
+	 */
+	private Segment errorSegment(int index) {
+		// read the rest of the line for context, but only as far as the reader
+		// can go without blocking, so that an error on a live feed isn't held
+		// up until the next line break arrives
+		int i = index;
+		while (true) {
+			while (i < buffer.length() && buffer.charAt(i) != '\r' && buffer.charAt(i) != '\n') {
+				i++;
+			}
+			if (i < buffer.length() || !ready() || !read()) {
+				break;
+			}
+		}
+		Segment uncommitted = new Segment(buffer.toString(), source, bufferStartLine, bufferStartCol);
+		return uncommitted.charAtAsSegment(Math.min(index, uncommitted.length()));
+	}
+
+	public StreamingSegmentParser advanceToWhitespace() {
+		while (fill(1) && !Character.isWhitespace(buffer.charAt(index))) {
+			index++;
+		}
+		return this;
+	}
+
+	public boolean atEnd() {
+		return !fill(1);
+	}
+
+	public BigDecimal bigDecimal() throws SegmentParseException {
+		return bigDecimal("invalid number");
+	}
+
+	public BigDecimal bigDecimal(Function<StreamingSegmentParser, String> errorMessage)
+			throws SegmentParseException {
+		Segment segment = match(BIG_DECIMAL_STRING, errorMessage);
+		try {
+			return new BigDecimal(segment.toString());
+		} catch (Exception ex) {
+			throw new SegmentParseException(errorMessage.apply(this), ex, segment);
+		}
+	}
+
+	public BigDecimal bigDecimal(String errorMessage) throws SegmentParseException {
+		return bigDecimal(p -> errorMessage);
+	}
+
+	public StreamingSegmentParser character(char c) throws SegmentParseException {
+		if (!fill(1) || buffer.charAt(index) != c) {
+			throw new SegmentParseException("expected '" + c + "'", errorSegment(index));
+		}
+		index++;
+		return this;
+	}
+
+	public StreamingSegmentParser character(char c, Function<StreamingSegmentParser, String> errorMessage)
+			throws SegmentParseException {
+		if (!fill(1) || buffer.charAt(index) != c) {
+			throw new SegmentParseException(errorMessage.apply(this), errorSegment(index));
+		}
+		index++;
+		return this;
+	}
+
+	public StreamingSegmentParser character(char c, String errorMessage) throws SegmentParseException {
+		if (!fill(1) || buffer.charAt(index) != c) {
+			throw new SegmentParseException(errorMessage, errorSegment(index));
+		}
+		index++;
+		return this;
+	}
+
+	public char character(Function<StreamingSegmentParser, String> errorMessage) throws SegmentParseException {
+		if (!fill(1)) {
+			throw new SegmentParseException(errorMessage.apply(this), errorSegment(index));
+		}
+		return buffer.charAt(index++);
+	}
+
+	public char character(String errorMessage) throws SegmentParseException {
+		if (!fill(1)) {
+			throw new SegmentParseException(errorMessage, errorSegment(index));
+		}
+		return buffer.charAt(index++);
+	}
+
+	/**
+	 * @throws IndexOutOfBoundsException
+	 *             if at the end of input.
+	 */
+	public char charAtIndex() {
+		fill(1);
+		return buffer.charAt(index);
+	}
+
+	/**
+	 * Discards the text before the current index, which can no longer be
+	 * parsed or shown in error messages.
+	 */
+	public StreamingSegmentParser commit() {
+		advanceCursor(index);
+		bufferStartLine = cursorLine;
+		bufferStartCol = cursorCol;
+		buffer.delete(0, index);
+		committed += index;
+		cursorIndex = 0;
+		index = 0;
+		return this;
+	}
+
+	/**
+	 * @return the column of the current index.
+	 */
+	public int getCol() {
+		advanceCursor(index);
+		return cursorCol;
+	}
+
+	/**
+	 * @return the line of the current index.
+	 */
+	public int getLine() {
+		advanceCursor(index);
+		return cursorLine;
+	}
+
+	/**
+	 * @return the number of characters before the current index since the
+	 *         beginning of input.
+	 */
+	public long getOffset() {
+		return committed + index;
+	}
+
+	/**
+	 * Matches the given pattern at the current index, reading more input
+	 * whenever the matcher {@linkplain Matcher#hitEnd() hits the end} of the
+	 * buffer, since more input could change the result.
+	 */
+	public Segment match(Pattern p, Function<StreamingSegmentParser, String> errorMessage)
+			throws SegmentParseException {
+		fill(1);
+		Matcher m = p.matcher(buffer);
+		boolean found;
+		while (true) {
+			m.region(index, buffer.length());
+			found = m.lookingAt();
+			if (!(m.hitEnd() || found && m.requireEnd()) || !read()) {
+				break;
+			}
+			m.reset(buffer);
+		}
+		if (!found) {
+			throw new SegmentParseException(errorMessage.apply(this), errorSegment(index));
+		}
+		Segment result = segment(index, m.end());
+		index = m.end();
+		return result;
+	}
+
+	public Segment match(Pattern p, String errorMessage) throws SegmentParseException {
+		return match(p, p2 -> errorMessage);
+	}
+
+	public Segment match(String pattern, Function<StreamingSegmentParser, String> errorMessage)
+			throws SegmentParseException {
+		return match(Pattern.compile(pattern), errorMessage);
+	}
+
+	public Segment match(String pattern, String errorMessage) throws SegmentParseException {
+		return match(Pattern.compile(pattern), errorMessage);
+	}
+
+	/**
+	 * @param amount
+	 *            the number of characters to move forward (or backward, but
+	 *            not before the last {@link #commit()}).
+	 */
+	public StreamingSegmentParser move(int amount) {
+		if (index + amount < 0) {
+			throw new IllegalArgumentException("can't move before committed text");
+		}
+		fill(amount);
+		index = Math.min(index + amount, buffer.length());
+		return this;
+	}
+
+	public Segment nonwhitespace() throws SegmentParseException {
+		return nonwhitespace("expected non-whitespace");
+	}
+
+	public Segment nonwhitespace(Function<StreamingSegmentParser, String> errorMessage)
+			throws SegmentParseException {
+		return match(NONWHITESPACE, errorMessage);
+	}
+
+	public Segment nonwhitespace(String errorMessage) throws SegmentParseException {
+		return nonwhitespace(p -> errorMessage);
+	}
+
+	public void throwException(String message) throws SegmentParseException {
+		throw new SegmentParseException(message, errorSegment(index));
+	}
+
+	public StreamingSegmentParser whitespace() throws SegmentParseException {
+		return whitespace("expected whitespace");
+	}
+
+	public StreamingSegmentParser whitespace(String errorMessage) throws SegmentParseException {
+		match(WHITESPACE, errorMessage);
+		return this;
+	}
+}
@@ -0,0 +1,20 @@
+package org.andork.segment;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors {@link Segment#readFiles(java.util.Collection,
+ * java.nio.charset.Charset)} loads files with.
+ * <p>
+ * This is the JDK 21 implementation, which uses a virtual thread per file,
+ * since loading files mostly blocks on I/O.
+ */
+final class FileLoadingExecutors {
+	private FileLoadingExecutors() {
+	}
+
+	static ExecutorService newExecutor(int fileCount) {
+		return Executors.newVirtualThreadPerTaskExecutor();
+	}
+}
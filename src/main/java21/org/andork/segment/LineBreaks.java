@@ -0,0 +1,63 @@
+package org.andork.segment;
+
+/**
+ * Scans for line breaks ({@code \r\n}, {@code \r} or {@code \n}), which is
+ * what most of the time spent constructing {@link Segment}s goes to.
+ * <p>
+ * This is the JDK 21 implementation, which uses the bounded
+ * {@link String#indexOf(int, int, int)} added in JDK 21. HotSpot compiles it
+ * to a vectorized (SIMD) intrinsic, so it's much faster than checking each
+ * character.
+ */
+final class LineBreaks {
+	private LineBreaks() {
+	}
+
+	/**
+	 * @return the index of the first {@code \r} or {@code \n} in the given
+	 *         region of {@code s}, or -1 if there is none.
+	 */
+	static int find(CharSequence s, int from, int to) {
+		if (!(s instanceof String str)) {
+			for (int i = from; i < to; i++) {
+				char c = s.charAt(i);
+				if (c == '\n' || c == '\r') {
+					return i;
+				}
+			}
+			return -1;
+		}
+		// scan in growing chunks, so that if one kind of line break is
+		// missing we don't scan to the end for it every time
+		int chunk = 128;
+		while (true) {
+			int chunkEnd = (int) Math.min(to, (long) from + chunk);
+			int lf = str.indexOf('\n', from, chunkEnd);
+			int cr = str.indexOf('\r', from, lf < 0 ? chunkEnd : lf);
+			if (cr >= 0) {
+				return cr;
+			}
+			if (lf >= 0) {
+				return lf;
+			}
+			if (chunkEnd == to) {
+				return -1;
+			}
+			from = chunkEnd;
+			if (chunk < 1 << 24) {
+				chunk <<= 1;
+			}
+		}
+	}
+
+	/**
+	 * @param index
+	 *            the index of a line break found by
+	 *            {@link #find(CharSequence, int, int)}.
+	 * @return the index after the line break (which is two characters long if
+	 *         it's a {@code \r\n} that ends before {@code to}).
+	 */
+	static int end(CharSequence s, int index, int to) {
+		return s.charAt(index) == '\r' && index + 1 < to && s.charAt(index + 1) == '\n' ? index + 2 : index + 1;
+	}
+}
@@ -0,0 +1,136 @@
+package org.andork.segment;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.regex.Pattern;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import com.sun.management.VMOption;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Makes sure hot operations don't allocate more memory than they should, by
+ * measuring the bytes allocated by the current thread.
+ */
+public class AllocationBudgetTests {
+	private static final int WARMUP_ITERATIONS = 50000;
+	private static final int ITERATIONS = 100000;
+
+	private com.sun.management.ThreadMXBean threadBean;
+	/**
+	 * {@code ThreadMXBean.getCurrentThreadAllocatedBytes()} (JDK 14+), or
+	 * {@code null} if it's unavailable.
+	 */
+	private MethodHandle currentThreadAllocatedBytes;
+
+	@Before
+	public void setUp() throws IllegalAccessException {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+		try {
+			currentThreadAllocatedBytes = MethodHandles.publicLookup().findVirtual(
+					com.sun.management.ThreadMXBean.class, "getCurrentThreadAllocatedBytes",
+					MethodType.methodType(long.class));
+		} catch (NoSuchMethodException ex) {
+			currentThreadAllocatedBytes = null;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	private long allocatedBytes() {
+		if (currentThreadAllocatedBytes == null) {
+			return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		try {
+			return (long) currentThreadAllocatedBytes.invokeExact(threadBean);
+		} catch (Throwable ex) {
+			throw new AssertionError(ex);
+		}
+	}
+
+	/**
+	 * @return whether object references take 4 bytes, which the budgets of
+	 *         {@link #testBoundedAllocations()} assume.
+	 */
+	private static boolean usesCompressedOops() {
+		HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+		if (bean == null) {
+			return false;
+		}
+		try {
+			VMOption option = bean.getVMOption("UseCompressedOops");
+			return Boolean.parseBoolean(option.getValue());
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the average number of bytes allocated per call of
+	 *         {@code operation} (after warming it up).
+	 */
+	private double bytesPerOperation(ExceptionRunnable operation) throws Exception {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			operation.run();
+		}
+		// subtract whatever measuring itself allocates
+		long overhead = -allocatedBytes() + allocatedBytes();
+		long before = allocatedBytes();
+		for (int i = 0; i < ITERATIONS; i++) {
+			operation.run();
+		}
+		long after = allocatedBytes();
+		return (double) (after - before - overhead) / ITERATIONS;
+	}
+
+	private void assertBudget(String operation, double budget, ExceptionRunnable r) throws Exception {
+		double bytes = bytesPerOperation(r);
+		if (bytes > budget) {
+			Assert.fail(operation + " allocated " + bytes + " bytes per call; budget is " + budget);
+		}
+	}
+
+	private static final Segment LINE = new Segment("  hello world, this is a test  ", "test.txt", 3, 0);
+	private static final Segment LINES = new Segment("foo bar\nbaz qux\r\nhello world\n", "test.txt", 0, 0);
+
+	@Test
+	public void testAllocationFree() throws Exception {
+		Segment trimmed = LINE.trim();
+		assertBudget("charAt", 0.1, () -> LINE.charAt(5));
+		assertBudget("trim (nothing to trim)", 0.1, () -> trimmed.trim());
+
+		SegmentParser p = new SegmentParser(LINE);
+		assertBudget("SegmentParser.character(char)", 0.1, () -> p.moveTo(2).character('h'));
+		assertBudget("SegmentParser.character(char, String)", 0.1, () -> p.moveTo(2).character('h', "test"));
+		assertBudget("SegmentParser.character(String)", 0.1, () -> p.moveTo(2).character("test"));
+		assertBudget("SegmentParser.advanceToWhitespace", 0.1, () -> p.moveTo(2).advanceToWhitespace());
+
+		Fields fields = Fields.delimitedBy(',');
+		SegmentParser numbers = new SegmentParser(new Segment("12,345,-6789", "test.txt", 0, 0));
+		assertBudget("SegmentParser.fields", 0.1, () -> numbers.moveTo(0).fields(fields));
+		assertBudget("Fields.parseLong", 0.1, () -> fields.parseLong(2));
+	}
+
+	@Test
+	public void testBoundedAllocations() throws Exception {
+		Assume.assumeTrue(usesCompressedOops());
+		assertBudget("substring (single line)", 128, () -> LINE.substring(2, 7));
+		assertBudget("substring (multiple lines)", 128, () -> LINES.substring(18, 23));
+		assertBudget("trim", 160, () -> LINE.trim());
+		assertBudget("split (3 parts)", 480, () -> LINE.split(","));
+		assertBudget("split (whitespace)", 1024, () -> LINES.split("\\s+"));
+
+		Pattern word = Pattern.compile("\\w+");
+		SegmentParser p = new SegmentParser(LINE);
+		assertBudget("SegmentParser.match", 448, () -> p.moveTo(2).match(word, "test"));
+		assertBudget("SegmentParser.nonwhitespace", 448, () -> p.moveTo(2).nonwhitespace());
+	}
+}
@@ -0,0 +1,6 @@
+package org.andork.segment;
+
+@FunctionalInterface
+interface ExceptionRunnable {
+	public void run() throws Exception;
+}
@@ -0,0 +1,113 @@
+package org.andork.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+public class FieldsTests {
+	private static SegmentParser parser(String text) {
+		return new SegmentParser(new Segment(text, "test", 0, 0));
+	}
+
+	private static String texts(Fields fields) throws SegmentParseException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < fields.size(); i++) {
+			sb.append('[').append(fields.text(i)).append(']');
+		}
+		return sb.toString();
+	}
+
+	private static void assertParseError(ExceptionRunnable r, int line, int col, String message) {
+		try {
+			r.run();
+			fail("expected function to throw a SegmentParseException");
+		} catch (Exception e) {
+			SegmentParseException error = (SegmentParseException) e;
+			assertEquals(message, error.getMessage());
+			assertEquals(line, error.getSegment().startLine);
+			assertEquals(col, error.getSegment().startCol);
+		}
+	}
+
+	@Test
+	public void testWhitespace() throws SegmentParseException {
+		SegmentParser p = parser("  a  bc\td \r\n\nefg\n  \n12 -34");
+		Fields fields = Fields.whitespace();
+		assertEquals("[a][bc][d]", texts(p.fields(fields)));
+		assertEquals(5, fields.start(1));
+		assertEquals(7, fields.end(1));
+		Segment bc = fields.segment(1);
+		assertEquals("bc", bc.toString());
+		assertEquals(0, bc.startLine);
+		assertEquals(5, bc.startCol);
+
+		assertEquals("", texts(p.fields(fields)));
+		assertEquals("[efg]", texts(p.fields(fields)));
+		assertEquals(2, fields.segment(0).startLine);
+		assertEquals("", texts(p.fields(fields)));
+		assertEquals("[12][-34]", texts(p.fields(fields)));
+		assertEquals(12, fields.parseInt(0));
+		assertEquals(-34L, fields.parseLong(1));
+		assertTrue(p.atEnd());
+	}
+
+	@Test
+	public void testDelimiter() throws SegmentParseException {
+		SegmentParser p = parser("a,,b c,\n,\n1.5,2e3");
+		Fields fields = Fields.delimitedBy(',');
+		assertEquals("[a][][b c][]", texts(p.fields(fields)));
+		assertEquals("[][]", texts(p.fields(fields)));
+		assertEquals("[1.5][2e3]", texts(p.fields(fields)));
+		assertEquals(1.5, fields.parseDouble(0), 0);
+		assertEquals(new BigDecimal("2e3"), fields.bigDecimal(1));
+	}
+
+	@Test
+	public void testQuotes() throws SegmentParseException {
+		Fields fields = Fields.delimitedBy(',').quote('"');
+		SegmentParser p = parser("\"a,b\",\"say \"\"hi\"\"\",,\"\"\nx");
+		assertEquals("[a,b][say \"hi\"][][]", texts(p.fields(fields)));
+		assertEquals("a,b", fields.segment(0).toString());
+		assertEquals(1, fields.segment(0).startCol);
+
+		fields = Fields.whitespace().quote('\'');
+		assertEquals("[a b][c]", texts(parser("'a b'  c").fields(fields)));
+
+		Fields unterminated = Fields.delimitedBy(',').quote('"');
+		assertParseError(() -> parser("a,\"b,c").fields(unterminated), 0, 2, "unterminated quote");
+		assertParseError(() -> parser("a,\"b\"c").fields(unterminated), 0, 5,
+				"expected delimiter after closing quote");
+	}
+
+	@Test
+	public void testEscapes() throws SegmentParseException {
+		Fields fields = Fields.delimitedBy(',').escape('\\');
+		assertEquals("[a,b][c\\][d]", texts(parser("a\\,b,c\\\\,d").fields(fields)));
+		assertEquals("a\\,b", fields.segment(0).toString());
+
+		fields = Fields.whitespace().quote('"').escape('\\');
+		assertEquals("[a \"b\"][c d]", texts(parser("\"a \\\"b\\\"\" c\\ d").fields(fields)));
+	}
+
+	@Test
+	public void testErrors() throws SegmentParseException {
+		Fields fields = parser("x\n 12 abc 99999999999 9223372036854775808").fields(Fields.whitespace());
+		assertParseError(() -> fields.parseInt(1), 0, 1, "missing field 2");
+		assertParseError(() -> fields.require(3), 0, 1, "expected 3 fields");
+
+		SegmentParser p = parser("x\n 12 abc 99999999999 9223372036854775808 -9223372036854775808");
+		p.fields(fields);
+		p.fields(fields);
+		assertEquals(12, fields.parseInt(0));
+		assertParseError(() -> fields.parseInt(1, "bad"), 1, 4, "bad");
+		assertParseError(() -> fields.parseInt(2), 1, 8, "invalid integer");
+		assertEquals(99999999999L, fields.parseLong(2));
+		assertParseError(() -> fields.parseLong(3), 1, 20, "invalid integer");
+		assertEquals(Long.MIN_VALUE, fields.parseLong(4));
+		assertParseError(() -> fields.parseDouble(1), 1, 4, "invalid number");
+	}
+}
@@ -0,0 +1,123 @@
+package org.andork.segment;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LargeSourceTests {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String TEXT = "ab\r\nc\u00e9\rdef\n\nxyz";
+
+	/**
+	 * Uses tiny chunks and checkpoints so that they're crossed all the time.
+	 */
+	private LargeSource open(String text) throws IOException {
+		Path file = folder.newFile().toPath();
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+		return new LargeSource(file, StandardCharsets.UTF_8, 3, 2);
+	}
+
+	@Test
+	public void testLines() throws IOException {
+		try (LargeSource source = open(TEXT)) {
+			assertEquals(16, source.size());
+			assertEquals(5, source.lineCount());
+			long[] starts = { 0, 4, 8, 12, 13 };
+			for (int line = 0; line < starts.length; line++) {
+				assertEquals(starts[line], source.lineStart(line));
+			}
+			long[] lines = { 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 4, 4, 4, 4 };
+			for (int offset = 0; offset < lines.length; offset++) {
+				assertEquals("offset " + offset, lines[offset], source.lineOf(offset));
+			}
+			assertEquals("ab", source.line(0).toString());
+			assertEquals("c\u00e9", source.line(1).toString());
+			assertEquals("", source.line(3).toString());
+			assertEquals("xyz", source.line(4).toString());
+		}
+	}
+
+	@Test
+	public void testTrailingLineBreak() throws IOException {
+		try (LargeSource source = open("abc\n")) {
+			assertEquals(2, source.lineCount());
+			assertEquals(1, source.lineOf(4));
+			assertEquals("", source.line(1).toString());
+		}
+		try (LargeSource source = open("abc")) {
+			assertEquals(1, source.lineCount());
+			assertEquals(0, source.lineOf(3));
+		}
+	}
+
+	@Test
+	public void testSegment() throws IOException {
+		try (LargeSource source = open(TEXT)) {
+			LargeSegment segment = source.segment(5, 7);
+			assertEquals("\u00e9", segment.toString());
+			assertEquals(1, segment.startLine);
+			assertEquals(1, segment.startCol);
+			assertEquals(1, segment.endLine);
+			assertEquals(1, segment.endCol);
+
+			segment = source.segment(8, 15);
+			assertEquals("def\n\nxy", segment.toString());
+			assertEquals(2, segment.startLine);
+			assertEquals(0, segment.startCol);
+			assertEquals(4, segment.endLine);
+			assertEquals(1, segment.endCol);
+
+			assertEquals("xy", segment.subsegment(5, 7).toString());
+			assertEquals(4, segment.subsegment(5, 7).startLine);
+		}
+	}
+
+	@Test
+	public void testToSegment() throws IOException {
+		Segment expected = new Segment(TEXT, "test", 0, 0);
+		try (LargeSource source = open(TEXT)) {
+			Segment segment = source.segment(9, 16).toSegment();
+			assertEquals("ef\n\nxyz", segment.toString());
+			assertEquals(2, segment.startLine);
+			assertEquals(1, segment.startCol);
+			assertEquals(4, segment.endLine);
+			assertEquals(2, segment.endCol);
+
+			assertEquals(expected.substring(7, 10).underlineInContext().replace("test", source.path.toString()),
+					source.segment(8, 11).underlineInContext());
+		}
+	}
+
+	@Test
+	public void testCharCount() throws IOException {
+		// characters of 1 to 4 bytes, split across chunks in every way
+		String text = "a\u00e9\u20ac\ud83d\ude00b\u00e9\u20ac\ud83d\ude00";
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		try (LargeSource source = open(text)) {
+			for (int start = 0; start <= bytes.length; start++) {
+				for (int end = start; end <= bytes.length; end++) {
+					assertEquals(start + "-" + end, source.decode(start, end).length(), source.charCount(start, end));
+				}
+			}
+			LargeSegment b = source.segment(10, 11);
+			assertEquals("b", b.toString());
+			assertEquals(5, b.startCol);
+			assertEquals(5, b.endCol);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRequiresAsciiCompatibleEncoding() throws IOException {
+		Path file = folder.newFile().toPath();
+		new LargeSource(file, StandardCharsets.UTF_16, 3, 2).close();
+	}
+}
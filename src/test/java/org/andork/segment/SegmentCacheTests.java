@@ -0,0 +1,122 @@
+package org.andork.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentCacheTests {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final SegmentCache.Codec<List<Segment>> LIST_CODEC = new SegmentCache.Codec<List<Segment>>() {
+		@Override
+		public void write(List<Segment> value, SegmentCache.Output out) throws IOException {
+			out.writeVarLong(value.size());
+			for (Segment segment : value) {
+				out.writeSegment(segment);
+			}
+		}
+
+		@Override
+		public List<Segment> read(SegmentCache.Input in) throws IOException {
+			int size = (int) in.readVarLong();
+			List<Segment> result = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				result.add(in.readSegment());
+			}
+			return result;
+		}
+	};
+
+	private static List<Segment> words(Segment root) {
+		List<Segment> result = new ArrayList<>();
+		SegmentMatcher m = new SegmentMatcher(root, Pattern.compile("\\S+"));
+		while (m.find()) {
+			result.add(m.group());
+		}
+		result.add(null);
+		result.add(root);
+		result.add(root.substring(3, 3));
+		return result;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		SegmentCache cache = new SegmentCache(folder.getRoot().toPath(), 1 << 20);
+		Segment root = new Segment("foo bar\r\n  baz\n\nqux  \r quux", "foo.txt", 5, 3);
+		List<Segment> expected = words(root);
+
+		assertNull(cache.get(root, "words", LIST_CODEC));
+		List<Segment> parsed = cache.computeIfAbsent(root, "words", LIST_CODEC, SegmentCacheTests::words);
+		assertEquals(expected, parsed);
+
+		Segment sameText = new Segment(root.toString(), "foo.txt", 5, 3);
+		List<Segment> restored = cache.computeIfAbsent(sameText, "words", LIST_CODEC, r -> {
+			throw new AssertionError("should have been cached");
+		});
+		assertEquals(expected.size(), restored.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Segment e = expected.get(i);
+			Segment a = restored.get(i);
+			if (e == null) {
+				assertNull(a);
+				continue;
+			}
+			assertEquals(e, a);
+			assertEquals(e.sourceIndex, a.sourceIndex);
+			assertEquals(e.startLine, a.startLine);
+			assertEquals(e.startCol, a.startCol);
+			assertEquals(e.endLine, a.endLine);
+			assertEquals(e.endCol, a.endCol);
+			assertEquals(e.underlineInContext(), a.underlineInContext());
+		}
+		assertSame(sameText, restored.get(restored.size() - 2));
+
+		assertNull(cache.get(new Segment(root.toString(), "foo.txt", 6, 3), "words", LIST_CODEC));
+		assertNull(cache.get(root, "other", LIST_CODEC));
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		Path dir = folder.getRoot().toPath();
+		SegmentCache cache = new SegmentCache(dir, 150);
+		// the filesystem's timestamps may be too coarse to order entries
+		// written this quickly, so give each one a distinct time in the past
+		long base = System.currentTimeMillis() - 3600000;
+		Set<Path> written = new HashSet<>();
+		for (int i = 0; i < 10; i++) {
+			Segment root = new Segment("entry " + i, "", 0, 0);
+			cache.put(root, "words", LIST_CODEC, words(root));
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+				for (Path file : stream) {
+					if (written.add(file)) {
+						Files.setLastModifiedTime(file, FileTime.fromMillis(base + i * 2000));
+					}
+				}
+			}
+		}
+		long total = 0;
+		for (Path file : Files.newDirectoryStream(dir)) {
+			total += Files.size(file);
+		}
+		assertEquals(true, total <= 150);
+		Segment last = new Segment("entry 9", "", 0, 0);
+		assertEquals(words(last), cache.get(last, "words", LIST_CODEC));
+		assertNull(cache.get(new Segment("entry 0", "", 0, 0), "words", LIST_CODEC));
+	}
+}
@@ -0,0 +1,174 @@
+package org.andork.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SegmentDiffTests {
+	private static String changes(SegmentDiff diff) {
+		StringBuilder sb = new StringBuilder();
+		for (SegmentDiff.Change change : diff.changes()) {
+			sb.append(change).append(": ").append(change.before).append(" -> ").append(change.after).append('\n');
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testUnchanged() {
+		Segment a = new Segment("a\nb\nc", "a", 0, 0);
+		Segment b = new Segment("a\nb\nc", "b", 0, 0);
+		SegmentDiff diff = SegmentDiff.of(a, b);
+		assertTrue(diff.isEmpty());
+		assertSame(b, diff.map(a));
+		assertEquals(2, diff.mapLine(2));
+	}
+
+	@Test
+	public void testChanges() {
+		Segment a = new Segment("a\nb\nc\nd\ne\nf\n", "a", 0, 0);
+		Segment b = new Segment("a\nB\nc\nd\nx\ny\nf\n", "b", 0, 0);
+		SegmentDiff diff = SegmentDiff.of(a, b);
+		assertEquals("lines 1-2 -> 1-2: b\n -> B\n\n" + //
+				"lines 4-5 -> 4-6: e\n -> x\ny\n\n", changes(diff));
+		assertEquals(4, diff.changes().get(1).after.startLine);
+
+		assertEquals(0, diff.mapLine(0));
+		assertEquals(-1, diff.mapLine(1));
+		assertEquals(3, diff.mapLine(3));
+		assertEquals(-1, diff.mapLine(4));
+		assertEquals(6, diff.mapLine(5));
+		assertEquals(7, diff.mapLine(6));
+
+		assertEquals(b.indexOf("f"), diff.mapIndex(a.indexOf("f")));
+		assertEquals(-1, diff.mapIndex(a.indexOf("e")));
+	}
+
+	@Test
+	public void testInsertAndDelete() {
+		Segment a = new Segment("a\nb\nc", "a", 0, 0);
+		Segment b = new Segment("x\na\nc", "b", 0, 0);
+		assertEquals("lines 0-0 -> 0-1:  -> x\n\n" + //
+				"lines 1-2 -> 2-2: b\n -> \n", changes(SegmentDiff.of(a, b)));
+		assertEquals("lines 0-1 -> 0-0: x\n -> \n" + //
+				"lines 2-2 -> 1-2:  -> b\n\n", changes(SegmentDiff.of(b, a)));
+	}
+
+	@Test
+	public void testLastLineBreak() {
+		Segment a = new Segment("a\nb", "a", 0, 0);
+		Segment b = new Segment("a\nb\n", "b", 0, 0);
+		assertEquals("lines 1-2 -> 1-3: b -> b\n\n", changes(SegmentDiff.of(a, b)));
+	}
+
+	@Test
+	public void testMap() {
+		Segment a = new Segment("foo bar\nbaz\nqux quux", "a", 3, 2);
+		Segment b = new Segment("foo bar\nnew\n\nqux quux", "b", 3, 2);
+		SegmentDiff diff = SegmentDiff.of(a, b);
+
+		Segment bar = diff.map(a.substring(4, 7));
+		assertEquals("bar", bar.toString());
+		assertSame(b, bar.sourceSegment);
+		assertEquals(3, bar.startLine);
+		assertEquals(6, bar.startCol);
+
+		Segment quux = diff.map(a.substring(a.indexOf("quux")));
+		assertEquals("quux", quux.toString());
+		assertEquals(6, quux.startLine);
+		assertEquals(4, quux.startCol);
+		assertEquals(b.indexOf("quux"), quux.sourceIndex);
+
+		assertNull(diff.map(a.substring(a.indexOf("baz"), a.indexOf("baz") + 3)));
+		// spans a changed line
+		assertNull(diff.map(a.substring(4, a.indexOf("qux"))));
+		assertNull(diff.map(a));
+	}
+
+	@Test(timeout = 10000)
+	public void testRewrittenFile() {
+		StringBuilder lf = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			lf.append("line ").append(i).append('\n');
+		}
+		Segment a = new Segment(lf.toString(), "a", 0, 0);
+		Segment b = new Segment(lf.toString().replace("\n", "\r\n"), "b", 0, 0);
+		SegmentDiff diff = SegmentDiff.of(a, b);
+		assertEquals("lines 0-10000 -> 0-10000: ", changes(diff).substring(0, 26));
+		assertEquals(1, diff.changes().size());
+		assertEquals(a, diff.changes().get(0).before);
+		assertEquals(b, diff.changes().get(0).after);
+		assertEquals(-1, diff.mapLine(5000));
+		assertNull(diff.map(a.substring(0, 4)));
+
+		// too many changes in the middle, but not at the ends
+		Segment c = new Segment("header\n" + b + "footer", "c", 0, 0);
+		Segment d = new Segment("header\n" + a + "footer", "d", 0, 0);
+		diff = SegmentDiff.of(c, d);
+		assertEquals(1, diff.changes().size());
+		assertEquals(1, diff.changes().get(0).oldStartLine);
+		assertEquals(10001, diff.changes().get(0).oldEndLine);
+		assertEquals(10001, diff.mapLine(10001));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMapOtherSegment() {
+		Segment a = new Segment("a", "a", 0, 0);
+		SegmentDiff.of(a, a).map(new Segment("a", "b", 0, 0));
+	}
+
+	/**
+	 * Checks random edits against the invariant that the unchanged lines and
+	 * the changes together rebuild both versions.
+	 */
+	@Test
+	public void testRandomEdits() {
+		Random random = new Random(7);
+		for (int trial = 0; trial < 200; trial++) {
+			List<String> oldLines = new ArrayList<>();
+			for (int i = random.nextInt(30); i > 0; i--) {
+				oldLines.add(String.valueOf((char) ('a' + random.nextInt(4))));
+			}
+			List<String> newLines = new ArrayList<>(oldLines);
+			for (int i = random.nextInt(5); i > 0; i--) {
+				int at = random.nextInt(newLines.size() + 1);
+				if (random.nextBoolean() && at < newLines.size()) {
+					newLines.remove(at);
+				} else {
+					newLines.add(at, String.valueOf((char) ('a' + random.nextInt(6))));
+				}
+			}
+			Segment a = new Segment(String.join("\n", oldLines), "a", 0, 0);
+			Segment b = new Segment(String.join("\n", newLines), "b", 0, 0);
+			SegmentDiff diff = SegmentDiff.of(a, b);
+
+			StringBuilder rebuilt = new StringBuilder();
+			int oldLine = 0;
+			int aLines = a.lineIndex().lineCount();
+			for (SegmentDiff.Change change : diff.changes()) {
+				for (; oldLine < change.oldStartLine; oldLine++) {
+					assertEquals(rebuilt.length(), diff.mapIndex(a.lineIndex().lineStart(oldLine)));
+					appendLine(rebuilt, a, oldLine);
+				}
+				rebuilt.append(change.after);
+				oldLine = change.oldEndLine;
+			}
+			for (; oldLine < aLines; oldLine++) {
+				appendLine(rebuilt, a, oldLine);
+			}
+			assertEquals(b.toString(), rebuilt.toString());
+		}
+	}
+
+	private static void appendLine(StringBuilder sb, Segment root, int line) {
+		LineIndex lines = root.lineIndex();
+		int end = line + 1 < lines.lineCount() ? lines.lineStart(line + 1) : root.length();
+		sb.append(root.toString(), lines.lineStart(line), end);
+	}
+}
@@ -0,0 +1,108 @@
+package org.andork.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SegmentIndexTests {
+	@Test
+	public void testNested() {
+		Segment root = new Segment("foo(bar(baz), qux)\nquux", "test", 0, 0);
+		Segment call = root.substring(0, 18);
+		Segment args = root.substring(4, 17);
+		Segment inner = root.substring(4, 12);
+		Segment baz = root.substring(8, 11);
+		Segment qux = root.substring(14, 17);
+		Segment quux = root.substring(19);
+		SegmentIndex index = SegmentIndex.of(Arrays.asList(quux, baz, call, qux, inner, args));
+
+		assertSame(baz, index.innermost(9));
+		assertSame(inner, index.innermost(11));
+		assertSame(qux, index.innermost(14));
+		assertSame(call, index.innermost(0));
+		assertNull(index.innermost(18));
+		assertSame(quux, index.innermost(1, 2));
+
+		assertEquals(Arrays.asList(call, args, inner, baz), index.covering(9));
+		assertEquals(Arrays.asList(call, args, inner, baz, qux), index.overlapping(10, 15));
+		assertEquals(Arrays.asList(call, args), index.overlapping(root.substring(12, 14)));
+		assertEquals(Collections.emptyList(), index.covering(18));
+
+		assertSame(inner, index.nearestPreceding(12));
+		assertSame(baz, index.nearestPreceding(11));
+		assertNull(index.nearestPreceding(10));
+		assertSame(call, index.nearestPreceding(19));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentRoots() {
+		SegmentIndex.of(Arrays.asList(new Segment("a", "a", 0, 0), new Segment("b", "b", 0, 0)));
+	}
+
+	@Test
+	public void testEmpty() {
+		SegmentIndex index = SegmentIndex.of(Collections.emptyList());
+		Segment root = new Segment("foo\nbar", "test", 0, 0);
+		assertEquals(0, index.size());
+		assertNull(index.root);
+		assertNull(index.innermost(1));
+		assertNull(index.innermost(1, 1));
+		assertEquals(0, index.covering(1).size());
+		assertEquals(0, index.covering(1, 1).size());
+		assertEquals(0, index.overlapping(0, 5).size());
+		assertEquals(0, index.overlapping(root.substring(4)).size());
+		assertNull(index.nearestPreceding(5));
+	}
+
+	@Test
+	public void testRandomSegments() {
+		Random random = new Random(3);
+		Segment root = new Segment(new String(new char[200]), "test", 0, 0);
+		for (int trial = 0; trial < 50; trial++) {
+			List<Segment> segments = new ArrayList<>();
+			for (int i = random.nextInt(100); i >= 0; i--) {
+				int start = random.nextInt(root.length());
+				segments.add(root.substring(start, start + random.nextInt(Math.min(40, root.length() - start))));
+			}
+			SegmentIndex index = SegmentIndex.of(segments);
+			for (int i = 0; i < root.length(); i++) {
+				Segment innermost = null;
+				Segment nearestPreceding = null;
+				List<Segment> overlapping = new ArrayList<>();
+				for (Segment s : segments) {
+					int end = s.sourceIndex + s.length();
+					if (s.sourceIndex <= i && end > i) {
+						if (innermost == null || s.sourceIndex > innermost.sourceIndex
+								|| s.sourceIndex == innermost.sourceIndex && s.length() < innermost.length()) {
+							innermost = s;
+						}
+					}
+					if (end <= i && (nearestPreceding == null
+							|| end > nearestPreceding.sourceIndex + nearestPreceding.length()
+							|| end == nearestPreceding.sourceIndex + nearestPreceding.length()
+									&& s.sourceIndex > nearestPreceding.sourceIndex)) {
+						nearestPreceding = s;
+					}
+					if (s.sourceIndex < i + 5 && end > i) {
+						overlapping.add(s);
+					}
+				}
+				assertEquals(segmentString(innermost), segmentString(index.innermost(i)));
+				assertEquals(segmentString(nearestPreceding), segmentString(index.nearestPreceding(i)));
+				assertEquals(overlapping.size(), index.overlapping(i, i + 5).size());
+			}
+		}
+	}
+
+	private static String segmentString(Segment s) {
+		return s == null ? null : s.sourceIndex + "-" + (s.sourceIndex + s.length());
+	}
+}
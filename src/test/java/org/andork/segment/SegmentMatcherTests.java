@@ -0,0 +1,80 @@
+package org.andork.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class SegmentMatcherTests {
+	private static void assertSamePosition(Segment expected, Segment actual) {
+		assertEquals(expected, actual);
+		assertEquals(expected.sourceIndex, actual.sourceIndex);
+		assertEquals(expected.startLine, actual.startLine);
+		assertEquals(expected.startCol, actual.startCol);
+		assertEquals(expected.endLine, actual.endLine);
+		assertEquals(expected.endCol, actual.endCol);
+	}
+
+	@Test
+	public void testGroups() {
+		Segment source = new Segment("foo: bar\r\n  baz\nqux: 12\n", "foo.txt", 5, 3);
+		SegmentMatcher m = new SegmentMatcher(source,
+				Pattern.compile("(?<key>\\w+): ((?<value>\\w+)(\\s+(baz))?)|(nope)"));
+
+		m.find();
+		Segment[] groups = m.groups();
+		assertEquals(m.groupCount() + 1, groups.length);
+		for (int i = 0; i < groups.length; i++) {
+			if (m.start(i) < 0) {
+				assertNull(groups[i]);
+			} else {
+				assertSamePosition(source.substring(m.start(i), m.end(i)), groups[i]);
+			}
+		}
+		assertEquals("baz", groups[5].toString());
+		assertEquals(6, groups[5].startLine);
+		assertEquals(2, groups[5].startCol);
+
+		Map<String, Segment> named = m.namedGroups();
+		assertEquals(Arrays.asList("key", "value"), named.keySet().stream().collect(Collectors.toList()));
+		assertSamePosition(source.substring(0, 3), named.get("key"));
+		assertSamePosition(source.substring(5, 8), named.get("value"));
+
+		m.find();
+		groups = m.groups();
+		assertEquals("qux", groups[1].toString());
+		assertEquals(7, groups[1].startLine);
+		assertEquals(0, groups[1].startCol);
+		assertSamePosition(source.substring(m.start(3), m.end(3)), m.group("value"));
+	}
+
+	@Test
+	public void testParseGroupNames() {
+		Map<String, Integer> names = SegmentMatcher.parseGroupNames(
+				Pattern.compile("(?:a)(?<one>[(]\\()(?<=x)\\Q(?<no>\\E([\\[(])(?<two>b)"));
+		assertEquals(Integer.valueOf(1), names.get("one"));
+		assertEquals(Integer.valueOf(3), names.get("two"));
+		assertEquals(2, names.size());
+	}
+
+	@Test
+	public void testResults() {
+		Segment source = new Segment("a=1\nb=2\r\nc=3", "foo.txt", 0, 0);
+		SegmentMatcher m = new SegmentMatcher(source, Pattern.compile("(\\w)=(\\d)"));
+		List<Segment[]> results = m.results().collect(Collectors.toList());
+		assertEquals(3, results.size());
+		assertEquals("c", results.get(2)[1].toString());
+		assertEquals(2, results.get(2)[1].startLine);
+		assertEquals(2, results.get(2)[2].startCol);
+
+		List<Segment> all = m.findAll();
+		assertEquals(3, all.size());
+		assertSamePosition(source.substring(4, 7), all.get(1));
+	}
+}
@@ -1,16 +1,13 @@
 package org.andork.segment;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
 
 import org.junit.Assert;
 import org.junit.Test;
 
-@FunctionalInterface
-interface ExceptionRunnable {
-	public void run() throws Exception;
-}
-
 public class SegmentParserTests {
 	private static void assertThrowsParseError(Callable<?> c, int index, String message) {
 		try {
@@ -102,4 +99,137 @@ public class SegmentParserTests {
 		SegmentParser p2 = parser("hello");
 		assertThrowsParseError(() -> p2.whitespace("test"), 0, "test");
 	}
+
+	@Test
+	public void testErrorRecovery() throws SegmentParseException {
+		String text = "1 2\nx 3\n4 y\r\n5 6\n7 8";
+		SegmentParser.Step record = p -> {
+			p.bigDecimal("invalid first");
+			p.whitespace();
+			p.bigDecimal("invalid second");
+			if (!p.atEnd()) {
+				p.match(SegmentParser.SYNC_END_OF_LINE, "expected end of line");
+			}
+		};
+
+		SegmentParser p = parser(text).recoverErrors(SegmentParser.SYNC_END_OF_LINE, 10);
+		List<SegmentParseException> errors = p.parseAll(record);
+		Assert.assertEquals(2, errors.size());
+		Assert.assertEquals("invalid first", errors.get(0).getMessage());
+		Assert.assertEquals(1, errors.get(0).getSegment().startLine);
+		Assert.assertEquals(0, errors.get(0).getSegment().startCol);
+		Assert.assertEquals("invalid second", errors.get(1).getMessage());
+		Assert.assertEquals(2, errors.get(1).getSegment().startLine);
+		Assert.assertEquals(2, errors.get(1).getSegment().startCol);
+		Assert.assertFalse(p.hasTooManyErrors());
+
+		p = parser(text).recoverErrors(SegmentParser.SYNC_END_OF_LINE, 1);
+		Assert.assertEquals(1, p.parseAll(record).size());
+		Assert.assertTrue(p.hasTooManyErrors());
+		Assert.assertTrue(p.atEnd());
+
+		assertThrowsParseError(() -> parser(text).parseAll(record), 0, "invalid first");
+	}
+
+	@Test
+	public void testErrorRecoveryAtEnd() throws SegmentParseException {
+		SegmentParser p = parser("12").recoverErrors(SegmentParser.SYNC_END_OF_LINE, 10);
+		Assert.assertTrue(p.attempt(q -> q.bigDecimal()));
+		Assert.assertFalse(p.attempt(q -> {
+			q.whitespace();
+			q.bigDecimal();
+		}));
+		Assert.assertEquals(2, p.index);
+		Assert.assertTrue(p.atEnd());
+		Assert.assertEquals("", p.rest().toString());
+		Assert.assertEquals(1, p.getErrors().size());
+	}
+
+	@Test(timeout = 5000)
+	public void testParseAllStepThatConsumesNothing() throws SegmentParseException {
+		SegmentParser.Step step = q -> {
+			if (q.charAtIndex() == ' ') {
+				q.whitespace();
+			}
+		};
+		assertThrowsParseError(() -> parser("1 2\n3 4").parseAll(step), 0, "unexpected input");
+
+		SegmentParser p = parser("1 2\n3 4").recoverErrors(SegmentParser.SYNC_END_OF_LINE, 10);
+		List<SegmentParseException> errors = p.parseAll(step);
+		Assert.assertEquals(2, errors.size());
+		Assert.assertEquals("unexpected input", errors.get(0).getMessage());
+		Assert.assertEquals(0, errors.get(0).getSegment().startLine);
+		Assert.assertEquals(1, errors.get(1).getSegment().startLine);
+		Assert.assertTrue(p.atEnd());
+	}
+
+	private static void assertMatchesAny(PatternAlternatives alternatives) throws SegmentParseException {
+		SegmentParser p = parser("12 foo 'bar baz' ab? x");
+		SegmentParser.Match match = p.matchAny(alternatives);
+		Assert.assertEquals(0, match.alternative);
+		Assert.assertEquals("12", match.segment.toString());
+		// even though the combined pattern has a group after it
+		try {
+			match.group(1);
+			Assert.fail("expected an IndexOutOfBoundsException");
+		} catch (IndexOutOfBoundsException ex) {
+			// expected
+		}
+		p.whitespace();
+		match = p.matchAny(alternatives);
+		Assert.assertEquals(1, match.alternative);
+		Assert.assertEquals("foo", match.segment.toString());
+		Assert.assertEquals(3, match.segment.startCol);
+		p.whitespace();
+		match = p.matchAny(alternatives);
+		Assert.assertEquals(2, match.alternative);
+		Assert.assertEquals("bar baz", match.group(1).toString());
+		Assert.assertEquals(8, match.group(1).startCol);
+		p.whitespace();
+		// the first alternative that matches wins
+		match = p.matchAny(alternatives);
+		Assert.assertEquals(1, match.alternative);
+		Assert.assertEquals("ab", match.segment.toString());
+		Assert.assertNull(p.tryMatchAny(alternatives));
+		Assert.assertEquals(19, p.index);
+		assertThrowsParseError(() -> p.matchAny(alternatives, "expected token"), 19, "expected token");
+	}
+
+	@Test
+	public void testMatchAny() throws SegmentParseException {
+		PatternAlternatives alternatives = PatternAlternatives.of("\\d+", "[a-z]+", "'([^']*)'", "[a-z]+\\?");
+		Assert.assertTrue(alternatives.isCombined());
+		assertMatchesAny(alternatives);
+
+		alternatives = PatternAlternatives.of(Pattern.compile("\\d+"),
+				Pattern.compile("[A-Z]+", Pattern.CASE_INSENSITIVE), Pattern.compile("(')([^']*)\\1"),
+				Pattern.compile("[a-z]+\\?"));
+		Assert.assertFalse(alternatives.isCombined());
+		SegmentParser p = parser("12 FOO 'bar'");
+		Assert.assertEquals(0, p.matchAny(alternatives).alternative);
+		p.whitespace();
+		Assert.assertEquals(1, p.matchAny(alternatives).alternative);
+		p.whitespace();
+		SegmentParser.Match match = p.matchAny(alternatives);
+		Assert.assertEquals(2, match.alternative);
+		Assert.assertEquals("bar", match.group(2).toString());
+	}
+
+	@Test
+	public void testMatchAnyFlags() throws SegmentParseException {
+		PatternAlternatives alternatives = PatternAlternatives.of(Pattern.compile("\\d+"),
+				Pattern.compile("[A-Z]+", Pattern.CASE_INSENSITIVE), Pattern.compile("'(?<text>[^']*)'"),
+				Pattern.compile("[a-z]+\\?"));
+		Assert.assertTrue(alternatives.isCombined());
+		SegmentParser p = parser("foo 'bar'");
+		Assert.assertEquals(1, p.matchAny(alternatives).alternative);
+		p.whitespace();
+		Assert.assertEquals("bar", p.matchAny(alternatives).group("text").toString());
+		// the case-insensitive flag doesn't apply to the other alternatives
+		Assert.assertNull(parser("X").tryMatchAny(PatternAlternatives.of(
+				Pattern.compile("y", Pattern.CASE_INSENSITIVE), Pattern.compile("[a-z]"))));
+
+		Assert.assertFalse(PatternAlternatives.of(Pattern.compile("a", Pattern.LITERAL)).isCombined());
+		Assert.assertFalse(PatternAlternatives.of("(?<a>x)", "(?<a>y)").isCombined());
+	}
 }
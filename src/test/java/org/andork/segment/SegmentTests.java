@@ -1,15 +1,62 @@
 package org.andork.segment;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import java.math.BigDecimal;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertArrayEquals;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class SegmentTests {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testLineBreaks() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			sb.append('x');
+		}
+		String line = sb.toString();
+		Segment source = new Segment(line + "\r" + line + "\r\n" + line + "\n" + line, "foo.txt", 0, 0);
+		assertEquals(3, source.endLine);
+		assertEquals(299, source.endCol);
+		Segment s = source.substring(904, 906);
+		assertEquals(3, s.startLine);
+		assertEquals(0, s.startCol);
+		s = source.substring(602, 1000);
+		assertEquals(1, s.startLine);
+		assertEquals(301, s.startCol);
+		assertEquals(3, s.endLine);
+		assertEquals(95, s.endCol);
+	}
+
+	@Test
+	public void testReadFiles() throws Exception {
+		List<Path> paths = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Path path = folder.newFile(i + ".txt").toPath();
+			Files.write(path, ("file " + i).getBytes(StandardCharsets.UTF_8));
+			paths.add(path);
+		}
+		List<Segment> segments = Segment.readFiles(paths, StandardCharsets.UTF_8);
+		for (int i = 0; i < 5; i++) {
+			assertEquals("file " + i, segments.get(i).toString());
+			assertEquals(paths.get(i), segments.get(i).source);
+		}
+	}
 	@Test
 	public void testSubstring() {
 		Segment source = new Segment("foo bar baz\r\n qux\nthis is a\ntest", "foo.txt", 5, 3);
@@ -62,10 +109,179 @@ public class SegmentTests {
 		assertEquals(source.substring(0, 5), parts[0]);
 		
 
+		parts = source.split(Pattern.compile("a"));
+		for (int i = 0; i < parts.length; i++) {
+			Segment expected = source.substring(parts[i].sourceIndex, parts[i].sourceIndex + parts[i].length());
+			assertEquals(expected.startLine, parts[i].startLine);
+			assertEquals(expected.startCol, parts[i].startCol);
+			assertEquals(expected.endLine, parts[i].endLine);
+			assertEquals(expected.endCol, parts[i].endCol);
+		}
+
 		parts = source.split("a", 2);
 		assertArrayEquals(parts, new Segment[] {
 			source.substring(0, 5),
 			source.substring(6)
 		});
 	}
+
+	@Test
+	public void testSplitDelimiters() {
+		String text = "a, b,,c\t|d;e  f\r\n g\u00e9h\u00e9\u00e9, \n\n  i+j++k.l, ";
+		Segment source = new Segment(text, "foo.txt", 2, 4);
+		String[] regexes = { ",", ", ", "\\t|,", "\\s+", "\\s", "[;,]", "[\\s,]+", " +", "\\+", "\\Q++\\E",
+				"\u00e9", "\u00e9+", "[a-c]", "\\.", "\\|", "\\s*,\\s*", "x", "|", "a|b+", "\\t|,+", ",+" };
+		for (String regex : regexes) {
+			for (int limit = -1; limit <= 3; limit++) {
+				Segment[] parts = source.split(regex, limit);
+				assertEquals(regex + " " + limit, Arrays.toString(text.split(regex, limit)), Arrays.toString(parts));
+				for (Segment part : parts) {
+					if (part == source) {
+						continue;
+					}
+					Segment expected = source.substring(part.sourceIndex, part.sourceIndex + part.length());
+					assertEquals(regex, expected.startLine, part.startLine);
+					assertEquals(regex, expected.startCol, part.startCol);
+					assertEquals(regex, expected.endLine, part.endLine);
+					assertEquals(regex, expected.endCol, part.endCol);
+				}
+			}
+		}
+		assertEquals(true, Delimiter.compile(", ") instanceof Delimiter.Literal);
+		assertEquals(true, Delimiter.compile("\\t|,") instanceof Delimiter.CharSet);
+		assertEquals(true, Delimiter.compile("\\s+") instanceof Delimiter.CharSet);
+		assertEquals(true, Delimiter.compile("[\\s,]+") instanceof Delimiter.CharSet);
+		assertEquals(null, Delimiter.compile("\\s*,\\s*"));
+		assertEquals(null, Delimiter.compile("\\t|,+"));
+		assertEquals("[x, , y]", Arrays.toString(new Segment("xaay", "foo.txt", 0, 0).split("a|b+")));
+		assertEquals("[x, , , y]", Arrays.toString(new Segment("x\t\t,y", "foo.txt", 0, 0).split("\\t|,+")));
+	}
+
+	@Test
+	public void testConcat() throws SegmentParseException {
+		Segment a = new Segment("foo bar\nbaz", "a.txt", 0, 0);
+		Segment b = new Segment("qux\nquux", "b.txt", 10, 0);
+		Segment c = Segment.concat(a.substring(4), a.substring(0, 0), b.substring(0, 3));
+		assertEquals("bar\nbazqux", c.toString());
+		assertEquals(new Segment("bar\nbazqux", "", 0, 0), c);
+		assertEquals("bar\nbazqux".hashCode(), c.hashCode());
+		assertEquals(c, Segment.concat(c.substring(0, 2), c.substring(2)));
+
+		Segment s = c.substring(8, 10);
+		assertEquals("ux", s.toString());
+		assertEquals("b.txt", s.source);
+		assertEquals(10, s.startLine);
+		assertEquals(1, s.startCol);
+		assertEquals(b, s.sourceSegment);
+
+		s = c.charAtAsSegment(4);
+		assertEquals("a.txt", s.source);
+		assertEquals(1, s.startLine);
+		assertEquals(0, s.startCol);
+
+		SegmentParser p = new SegmentParser(c);
+		assertEquals("a.txt", p.nonwhitespace().source);
+		p.whitespace();
+		try {
+			p.character('x');
+			fail("expected a SegmentParseException");
+		} catch (SegmentParseException ex) {
+			assertEquals("a.txt", ex.getSegment().source);
+			assertEquals(1, ex.getSegment().startLine);
+			assertEquals(0, ex.getSegment().startCol);
+		}
+		p.move(3);
+		assertEquals("b.txt", p.nonwhitespace().source);
+
+		SegmentMatcher m = new SegmentMatcher(c, Pattern.compile("baz(qux)"));
+		m.find();
+		assertEquals("b.txt", m.group(1).source);
+		assertEquals(0, m.group(1).startCol);
+		assertEquals(a.substring(8).underlineInContext() + System.lineSeparator()
+				+ b.substring(0, 3).underlineInContext(), m.group().underlineInContext());
+
+		Segment[] lines = c.split("\n");
+		assertEquals(0, lines[0].startLine);
+		assertEquals(4, lines[0].startCol);
+		assertEquals("bazqux", lines[1].toString());
+		assertEquals(1, lines[1].startLine);
+		assertEquals(10, lines[1].endLine);
+		assertEquals(2, lines[1].endCol);
+	}
+
+	@Test
+	public void testCharSequences() throws SegmentParseException {
+		String text = "foo bar\r\n  baz 1.5\nqux";
+		Segment expected = new Segment(text, "foo.txt", 1, 2);
+		CharBuffer buffer = CharBuffer.wrap(("xx" + text).toCharArray());
+		buffer.position(2);
+		StringBuilder builder = new StringBuilder(text);
+		Segment[] segments = { new Segment(buffer, "foo.txt", 1, 2), new Segment(builder, "foo.txt", 1, 2),
+				Segment.decode(StandardCharsets.UTF_8.encode(text), StandardCharsets.UTF_8, "foo.txt") };
+		builder.append("more");
+		buffer.position(0);
+		for (Segment segment : segments) {
+			if (segment.startLine == 0) {
+				segment = new Segment(segment.text(), "foo.txt", 1, 2);
+			}
+			assertEquals(expected, segment);
+			assertEquals(expected.hashCode(), segment.hashCode());
+			assertEquals(expected.endLine, segment.endLine);
+			assertEquals(expected.endCol, segment.endCol);
+
+			SegmentMatcher m = new SegmentMatcher(segment, Pattern.compile("baz"));
+			m.find();
+			Segment baz = m.group();
+			assertEquals("baz", baz.toString());
+			assertEquals(2, baz.startLine);
+			assertEquals(2, baz.startCol);
+			assertEquals(expected.substring(11, 14).underlineInContext(), baz.underlineInContext());
+
+			SegmentParser p = new SegmentParser(segment);
+			p.moveTo(15);
+			assertEquals(new BigDecimal("1.5"), p.bigDecimal());
+			assertEquals(true, segment.startsWith("foo"));
+			assertEquals(11, segment.indexOf('b', 5));
+			assertEquals(expected.split("\\s+").length, segment.split("\\s+").length);
+
+			String string = text;
+			assertEquals(string.codePointAt(4), segment.codePointAt(4));
+			assertEquals(string.codePointBefore(4), segment.codePointBefore(4));
+			assertEquals(string.offsetByCodePoints(2, 3), segment.offsetByCodePoints(2, 3));
+			assertEquals(string.indexOf("ba"), segment.indexOf("ba"));
+			assertEquals(string.indexOf("ba", 5), segment.indexOf("ba", 5));
+			assertEquals(string.lastIndexOf('a'), segment.lastIndexOf('a'));
+			assertEquals(string.lastIndexOf('a', 12), segment.lastIndexOf('a', 12));
+			assertEquals(string.lastIndexOf("ba"), segment.lastIndexOf("ba"));
+			assertEquals(string.lastIndexOf("ba", 5), segment.lastIndexOf("ba", 5));
+			assertEquals(true, segment.contains("1.5"));
+			assertEquals(false, segment.contains("1.6"));
+			assertEquals(true, segment.endsWith("qux"));
+			assertEquals(true, segment.regionMatches(true, 4, "BAR", 0, 3));
+			assertEquals(false, segment.regionMatches(4, "BAR", 0, 3));
+			assertEquals(true, segment.equalsIgnoreCase(text.toUpperCase()));
+			assertEquals(Integer.signum(string.compareTo("foo baz")), Integer.signum(segment.compareTo("foo baz")));
+			assertEquals(Integer.signum(string.compareToIgnoreCase("FOO")),
+					Integer.signum(segment.compareToIgnoreCase("FOO")));
+			assertEquals(true, segment.matches("(?s)foo.*qux"));
+			assertEquals(text, new String(segment.toCharArray()));
+
+			Segment isolated = segment.substring(4, 7).isolate();
+			assertEquals("bar", isolated.toString());
+			assertEquals(String.class, isolated.text().getClass());
+		}
+	}
+
+	@Test
+	public void testSupplementaryCharacters() {
+		String text = "a\ud83d\ude00b\ud83d\ude00";
+		Segment segment = new Segment(new StringBuilder(text), "foo.txt", 0, 0);
+		int smiley = text.codePointAt(1);
+		assertEquals(smiley, segment.codePointAt(1));
+		assertEquals(smiley, segment.codePointBefore(3));
+		assertEquals(4, segment.codePointCount(0, segment.length()));
+		assertEquals(4, segment.offsetByCodePoints(0, 3));
+		assertEquals(1, segment.indexOf(smiley));
+		assertEquals(4, segment.lastIndexOf(smiley));
+	}
 }
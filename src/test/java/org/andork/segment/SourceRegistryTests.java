@@ -0,0 +1,140 @@
+package org.andork.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SourceRegistryTests {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReload() throws Exception {
+		Path file = folder.newFile("foo.txt").toPath();
+		Files.write(file, "foo bar\n  baz qux\nquux".getBytes(StandardCharsets.UTF_8));
+
+		SourceRegistry registry = SourceRegistry.forFiles(StandardCharsets.UTF_8);
+		Segment root = Segment.readFile(file, StandardCharsets.UTF_8);
+		Segment baz = root.substring(10, 13);
+		CompactSegment compact = registry.compact(baz);
+		assertEquals(10, compact.sourceIndex);
+		assertEquals(1, compact.startLine);
+		assertEquals(2, compact.startCol);
+		assertSame(root, compact.toSegment().sourceSegment);
+
+		registry.clear();
+		Segment reloaded = compact.toSegment();
+		assertEquals(baz, reloaded);
+		assertEquals(baz.sourceIndex, reloaded.sourceIndex);
+		assertEquals(baz.startLine, reloaded.startLine);
+		assertEquals(baz.startCol, reloaded.startCol);
+		assertEquals(baz.endLine, reloaded.endLine);
+		assertEquals(baz.endCol, reloaded.endCol);
+		assertEquals(baz.underlineInContext(), compact.underlineInContext());
+
+		assertSame(reloaded.sourceSegment, compact.toSegment().sourceSegment);
+	}
+
+	@Test
+	public void testDecodedRoot() throws Exception {
+		String text = "foo bar\n  baz qux\nquux";
+		SourceRegistry registry = new SourceRegistry(source -> {
+			throw new AssertionError("shouldn't reload");
+		});
+		Segment root = Segment.decode(StandardCharsets.UTF_8.encode(text), StandardCharsets.UTF_8, "foo.txt");
+		CompactSegment compact = registry.compact(root.substring(10, 13));
+		Segment baz = compact.toSegment();
+		assertEquals("baz", baz.toString());
+		assertSame(root, baz.sourceSegment);
+		assertTrue(baz.text() instanceof CharBuffer);
+		assertEquals(root.substring(10, 13).underlineInContext(), compact.underlineInContext());
+	}
+
+	@Test
+	public void testConcurrentConflictingRoots() throws Exception {
+		int threads = 4;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int round = 0; round < 200; round++) {
+				SourceRegistry registry = new SourceRegistry(source -> {
+					throw new AssertionError("shouldn't reload");
+				});
+				CyclicBarrier barrier = new CyclicBarrier(threads);
+				List<Future<Boolean>> results = new ArrayList<>();
+				for (int i = 0; i < threads; i++) {
+					Segment root = new Segment("text " + i, "foo.txt", 0, 0);
+					results.add(executor.submit(() -> {
+						barrier.await();
+						try {
+							registry.compact(root.substring(0, 4));
+							return true;
+						} catch (IllegalStateException ex) {
+							return false;
+						}
+					}));
+				}
+				int registered = 0;
+				for (Future<Boolean> result : results) {
+					if (result.get()) {
+						registered++;
+					}
+				}
+				assertEquals(1, registered);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRejectsNonRoots() throws Exception {
+		Path file = folder.newFile("foo.txt").toPath();
+		Files.write(file, "foo bar\n  baz qux\nquux".getBytes(StandardCharsets.UTF_8));
+
+		SourceRegistry registry = SourceRegistry.forFiles(StandardCharsets.UTF_8);
+		Segment root = Segment.readFile(file, StandardCharsets.UTF_8);
+		CompactSegment foo = registry.compact(root.substring(0, 3));
+
+		for (Segment segment : new Segment[] { root.substring(10, 13).isolate(),
+				Segment.concat(root.substring(0, 3), root.substring(10, 13)), new Segment("baz", file, 1, 2),
+				new Segment("foo", null, 0, 0) }) {
+			try {
+				registry.compact(segment);
+				fail("expected an IllegalArgumentException");
+			} catch (IllegalArgumentException ex) {
+				// expected
+			}
+		}
+		assertEquals("foo", foo.toString());
+		assertEquals(0, foo.toSegment().startCol);
+
+		// identical text can be used interchangeably
+		Segment copy = new Segment(root.toString(), file, 0, 0);
+		assertEquals("baz", registry.compact(copy.substring(10, 13)).toString());
+		assertEquals("foo", foo.toString());
+
+		try {
+			registry.compact(new Segment("changed", file, 0, 0).substring(0, 3));
+			fail("expected an IllegalStateException");
+		} catch (IllegalStateException ex) {
+			// expected
+		}
+		assertEquals("foo", foo.toString());
+	}
+}
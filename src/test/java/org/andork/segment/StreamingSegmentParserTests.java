@@ -0,0 +1,161 @@
+package org.andork.segment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+public class StreamingSegmentParserTests {
+	/**
+	 * Returns at most a few characters per read, so that tokens get split
+	 * across reads.
+	 */
+	private static class TrickleReader extends Reader {
+		private final String text;
+		private int index = 0;
+
+		TrickleReader(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) {
+			if (index >= text.length()) {
+				return -1;
+			}
+			int n = Math.min(Math.min(len, 1 + index % 3), text.length() - index);
+			text.getChars(index, index + n, cbuf, off);
+			index += n;
+			return n;
+		}
+
+		@Override
+		public boolean ready() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static StreamingSegmentParser parser(String text) {
+		return new StreamingSegmentParser(new TrickleReader(text), "stream");
+	}
+
+	@Test
+	public void testRecords() throws SegmentParseException {
+		StreamingSegmentParser p = parser("12345.678 abcdefghij\r\n-3e4   foo\r\n");
+		for (int record = 0; record < 2; record++) {
+			BigDecimal number = p.bigDecimal();
+			p.whitespace();
+			Segment word = p.nonwhitespace();
+			assertEquals(record, word.startLine);
+			p.whitespace();
+			p.commit();
+			if (record == 0) {
+				assertEquals(new BigDecimal("12345.678"), number);
+				assertEquals("abcdefghij", word.toString());
+				assertEquals(10, word.startCol);
+				assertEquals(22, p.getOffset());
+			} else {
+				assertEquals(new BigDecimal("-3e4"), number);
+				assertEquals("foo", word.toString());
+				assertEquals(7, word.startCol);
+			}
+		}
+		assertTrue(p.atEnd());
+		assertEquals(2, p.getLine());
+		assertEquals(0, p.getCol());
+	}
+
+	@Test
+	public void testLineBreakAcrossReads() throws SegmentParseException {
+		StreamingSegmentParser p = new StreamingSegmentParser(new StringReader("a\r\nb\rc\nd"), "stream");
+		p.character('a').commit();
+		assertEquals(0, p.getLine());
+		assertEquals(1, p.getCol());
+		p.character('\r').commit();
+		assertEquals(0, p.getLine());
+		assertEquals(2, p.getCol());
+		p.character('\n').commit();
+		assertEquals(1, p.getLine());
+		assertEquals(0, p.getCol());
+		p.move(2);
+		assertEquals(2, p.getLine());
+		p.move(2);
+		assertEquals(3, p.getLine());
+		assertEquals(0, p.getCol());
+		assertEquals('d', p.charAtIndex());
+	}
+
+	@Test
+	public void testError() {
+		StreamingSegmentParser p = parser("first line\nsecond line\n");
+		try {
+			p.nonwhitespace();
+			p.whitespace();
+			p.nonwhitespace();
+			p.whitespace();
+			p.commit();
+			p.nonwhitespace();
+			p.character(':');
+			fail("expected a SegmentParseException");
+		} catch (SegmentParseException ex) {
+			assertEquals("expected ':'", ex.getMessage());
+			assertEquals(1, ex.getSegment().startLine);
+			assertEquals(6, ex.getSegment().startCol);
+			assertEquals("second line\n      ^", ex.getSegment().underlineInContext().replace(System.lineSeparator(), "\n"));
+		}
+	}
+
+	@Test
+	public void testErrorDoesntWaitForInput() {
+		// a live feed that has only sent part of a line so far
+		Reader feed = new Reader() {
+			private boolean sent;
+
+			@Override
+			public int read(char[] cbuf, int off, int len) {
+				if (sent) {
+					throw new AssertionError("would block");
+				}
+				sent = true;
+				"12 x".getChars(0, 4, cbuf, off);
+				return 4;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		StreamingSegmentParser p = new StreamingSegmentParser(feed, "stream");
+		try {
+			p.bigDecimal();
+			p.whitespace();
+			p.bigDecimal();
+			fail("expected a SegmentParseException");
+		} catch (SegmentParseException ex) {
+			assertEquals(3, ex.getSegment().startCol);
+			assertEquals("12 x\n   ^", ex.getSegment().underlineInContext().replace(System.lineSeparator(), "\n"));
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		StreamingSegmentParser p = parser("");
+		assertTrue(p.atEnd());
+		try {
+			p.whitespace();
+			fail("expected a SegmentParseException");
+		} catch (SegmentParseException ex) {
+			assertEquals(0, ex.getSegment().startCol);
+		}
+		assertTrue(p.atEnd());
+	}
+}